@@ -0,0 +1,64 @@
+package com.wishsalad.wishimu;
+
+/**
+ * Stillness test for the idle power-down. Motion is a gyroscope rate above GYR_THRESHOLD or
+ * an accelerometer reading more than ACC_THRESHOLD away from the reading at the last motion;
+ * the phone is idle once neither happened for idleNanos of sensor time.
+ *
+ * The accelerometer test alone is what notices the phone being picked up while idle, when
+ * only a slow accelerometer is left running. Sensor thread only.
+ */
+final class IdleDetector {
+
+    /** m/s² per component; well above resting noise, well below a hand lifting the phone. */
+    static final float ACC_THRESHOLD = 0.5f;
+    /** rad/s magnitude. */
+    static final float GYR_THRESHOLD = 0.15f;
+
+    private final long idleNanos;
+    private final float[] ref = new float[3];
+    private boolean hasRef;
+    private long lastMotion;
+
+    IdleDetector(long idleNanos) {
+        this.idleNanos = idleNanos;
+    }
+
+    /** Feeds an accelerometer reading; true if it counts as motion. */
+    boolean accelerometer(float[] acc, long timestamp) {
+        if (!hasRef) {
+            System.arraycopy(acc, 0, ref, 0, 3);
+            hasRef = true;
+            lastMotion = timestamp;
+            return false;
+        }
+        if (Math.abs(acc[0] - ref[0]) <= ACC_THRESHOLD
+                && Math.abs(acc[1] - ref[1]) <= ACC_THRESHOLD
+                && Math.abs(acc[2] - ref[2]) <= ACC_THRESHOLD) {
+            return false;
+        }
+        System.arraycopy(acc, 0, ref, 0, 3);
+        lastMotion = timestamp;
+        return true;
+    }
+
+    /** Feeds a gyroscope reading; true if it counts as motion. */
+    boolean gyroscope(float[] gyr, long timestamp) {
+        if (gyr[0] * gyr[0] + gyr[1] * gyr[1] + gyr[2] * gyr[2] <= GYR_THRESHOLD * GYR_THRESHOLD) {
+            return false;
+        }
+        lastMotion = timestamp;
+        return true;
+    }
+
+    /** Whether nothing moved for idleNanos before {@code timestamp}. */
+    boolean stillAt(long timestamp) {
+        return lastMotion != 0 && timestamp - lastMotion >= idleNanos;
+    }
+
+    /** Starts over: the next accelerometer reading becomes the reference. */
+    void reset() {
+        hasRef = false;
+        lastMotion = 0;
+    }
+}
@@ -3,13 +3,16 @@ package com.wishsalad.wishimu
 import android.Manifest
 import android.accessibilityservice.AccessibilityServiceInfo
 import android.app.Activity
+import android.content.ComponentName
 import android.content.Context
 import android.content.Intent
+import android.content.ServiceConnection
 import android.content.SharedPreferences
 import android.content.pm.PackageManager
 import android.hardware.SensorManager
 import android.os.Build
 import android.os.Bundle
+import android.os.IBinder
 import android.view.KeyEvent
 import android.view.WindowManager
 import android.view.accessibility.AccessibilityManager
@@ -76,6 +79,7 @@ import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.SideEffect
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableIntStateOf
+import androidx.compose.runtime.mutableStateListOf
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
 import androidx.compose.runtime.setValue
@@ -93,13 +97,15 @@ import androidx.compose.ui.input.pointer.PointerEventPass
 import androidx.compose.ui.input.pointer.pointerInput
 import androidx.compose.ui.unit.dp
 import androidx.core.content.ContextCompat
+import androidx.core.content.FileProvider
 import androidx.core.content.edit
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleEventObserver
 import androidx.lifecycle.compose.LocalLifecycleOwner
 import kotlinx.coroutines.delay
+import java.io.File
 import java.net.NetworkInterface
-import java.util.Locale
+import kotlin.math.abs
 
 /**
  * Returns true if VolumeKeyService is enabled in Accessibility Settings.
@@ -128,6 +134,44 @@ private fun getLocalIpAddress(): String {
     return "—"
 }
 
+// Debug panel text is rebuilt at 10 Hz on the main thread. These helpers append into one
+// reused StringBuilder instead of going through String.format (Formatter, Locale, boxing).
+
+private fun StringBuilder.appendFixed(v: Float, decimals: Int): StringBuilder {
+    if (v.isNaN()) return append("NaN")
+    var scale = 1L
+    for (i in 0 until decimals) scale *= 10
+    val n = Math.round(abs(v.toDouble()) * scale)
+    if (v < 0 && n != 0L) append('-')
+    append(n / scale)
+    if (decimals > 0) {
+        append('.')
+        var digit = scale / 10
+        while (digit > 0) {
+            append('0' + (n / digit % 10).toInt())
+            digit /= 10
+        }
+    }
+    return this
+}
+
+/** Latency in µs as milliseconds, "–" when nothing was recorded. */
+private fun StringBuilder.appendMicros(us: Long): StringBuilder =
+    if (us < 0) append('–') else appendFixed(us / 1000f, 2)
+
+private fun StringBuilder.appendVec3(v: FloatArray): StringBuilder =
+    appendFixed(v[0], 2).append("  ").appendFixed(v[1], 2).append("  ").appendFixed(v[2], 2)
+
+/** Rebuilds the text and returns [old] itself when unchanged, so the state is not invalidated. */
+private inline fun StringBuilder.render(old: String, build: StringBuilder.() -> Unit): String {
+    setLength(0)
+    build()
+    return if (contentEquals(old)) old else toString()
+}
+
+// Debug panel labels of Telemetry.STAGE_*, in index order
+private val LATENCY_STAGES = listOf("  sensor→app ", "  app→worker ", "  worker→net ", "  total      ", "  ack rtt    ")
+
 private data class SampleRateOption(val sensorDelayId: Int, val label: String, val shortLabel: String)
 
 private val SAMPLE_RATES = listOf(
@@ -137,6 +181,48 @@ private val SAMPLE_RATES = listOf(
     SampleRateOption(SensorManager.SENSOR_DELAY_FASTEST,  "Fastest – no delay", "Fastest")
 )
 
+// 0 = one packet per sensor event (FreePIE behavior); -1 = adaptive, backing off when acks
+// show loss or queueing; otherwise a fixed packet rate in Hz
+private data class SendRateOption(val hz: Int, val shortLabel: String)
+
+private val SEND_RATES = listOf(
+    SendRateOption(0,    "Event"),
+    SendRateOption(125,  "125"),
+    SendRateOption(250,  "250"),
+    SendRateOption(500,  "500"),
+    SendRateOption(1000, "1000"),
+    SendRateOption(-1,   "Auto")
+)
+
+// Samples packed into one datagram; 1 = legacy single-sample frame (FreePIE compatible)
+private val BATCH_SIZES = listOf(1, 2, 4, 8, 16)
+
+// Sensor hub FIFO report latency in ms; 0 = deliver every sample immediately
+private val SENSOR_BATCH_MS = listOf(0, 50, 100, 250)
+
+// Motion gating dead-bands per field (m/s², rad/s, µT, rad); index 0 = off, every frame is sent.
+// While the phone is still, frames within the dead-band are dropped apart from a 4 Hz heartbeat.
+private data class MotionGateOption(val label: String, val acc: Float, val gyr: Float, val mag: Float, val ori: Float)
+
+private val MOTION_GATES = listOf(
+    MotionGateOption("Off",    0f,    0f,    0f, 0f),
+    MotionGateOption("Fine",   0.1f,  0.02f, 1f, 0.005f),
+    MotionGateOption("Coarse", 0.3f,  0.06f, 3f, 0.015f)
+)
+
+// Seconds without motion before the sensors power down to a slow accelerometer; 0 = never
+private val IDLE_SECONDS = listOf(0, 10, 30, 60)
+
+// Wire encoding of sensor values: float32 (FreePIE), int16 fixed-point, or int16 keyframes + int8 deltas
+private val PACKET_FORMATS = listOf("Float", "Compact", "Compact Δ")
+
+// Orientation block: yaw/pitch/roll (FreePIE) or a unit quaternion w/x/y/z
+private val ORIENTATION_FORMATS = listOf("Euler", "Quaternion")
+
+// Orientation estimator, indexed like UdpSenderService.ORIENTATION_*: the platform's rotation
+// vector, or on-device fusion of raw gyro + accelerometer + magnetometer
+private val ORIENTATION_SOURCES = listOf("System", "Madgwick", "Mahony")
+
 class MainActivity : ComponentActivity() {
 
     companion object {
@@ -177,6 +263,29 @@ class MainActivity : ComponentActivity() {
                                 putExtra("sendRaw", sendRaw)
                                 putExtra("sampleRate", sampleRateId)
                                 putExtra("volumeButtons", volButtons)
+                                // Streaming options are edited in the settings sheet and saved
+                                // to prefs immediately; they take effect on the next Start.
+                                putExtra("sendRate", prefs.getInt("send_rate", 0))
+                                putExtra("batchSize", prefs.getInt("batch_size", 1))
+                                putExtra("sendSequence", prefs.getBoolean("send_sequence", false))
+                                putExtra("buttonEdges", prefs.getBoolean("button_edges", false))
+                                putExtra("sensorBatchMs", prefs.getInt("sensor_batch_ms", 0))
+                                val packetFormat = prefs.getInt("packet_format", 0)
+                                putExtra("sendCompact", packetFormat >= 1)
+                                putExtra("compactDelta", packetFormat == 2)
+                                putExtra("sendQuaternion", prefs.getBoolean("orientation_quaternion", false))
+                                putExtra("orientationSource", prefs.getInt("orientation_source", 0))
+                                putExtra("record", prefs.getBoolean("record_sensors", false))
+                                putExtra("idleSeconds", prefs.getInt("idle_seconds", 0))
+                                val gateIdx = prefs.getInt("motion_gate", 0)
+                                if (gateIdx in 1 until MOTION_GATES.size) {
+                                    val gate = MOTION_GATES[gateIdx]
+                                    putExtra("motionGate", true)
+                                    putExtra("gateAcc", gate.acc)
+                                    putExtra("gateGyr", gate.gyr)
+                                    putExtra("gateMag", gate.mag)
+                                    putExtra("gateOri", gate.ori)
+                                }
                             }
                         )
                     },
@@ -190,11 +299,11 @@ class MainActivity : ComponentActivity() {
         if (volumeButtonsActive) {
             when (keyCode) {
                 KeyEvent.KEYCODE_VOLUME_UP -> {
-                    UdpSenderService.buttonState.updateAndGet { it or 0x01 }
+                    UdpSenderService.setButton(0x01, true)
                     return true
                 }
                 KeyEvent.KEYCODE_VOLUME_DOWN -> {
-                    UdpSenderService.buttonState.updateAndGet { it or 0x02 }
+                    UdpSenderService.setButton(0x02, true)
                     return true
                 }
             }
@@ -206,11 +315,11 @@ class MainActivity : ComponentActivity() {
         if (volumeButtonsActive) {
             when (keyCode) {
                 KeyEvent.KEYCODE_VOLUME_UP -> {
-                    UdpSenderService.buttonState.updateAndGet { it and 0x01.inv() }
+                    UdpSenderService.setButton(0x01, false)
                     return true
                 }
                 KeyEvent.KEYCODE_VOLUME_DOWN -> {
-                    UdpSenderService.buttonState.updateAndGet { it and 0x02.inv() }
+                    UdpSenderService.setButton(0x02, false)
                     return true
                 }
             }
@@ -252,6 +361,25 @@ fun WishImuApp(
     var mouseButtons by remember { mutableStateOf(prefs.getBoolean("mouse_buttons", false)) }
     var volumeButtons by remember { mutableStateOf(prefs.getBoolean("volume_buttons", false)) }
     var selectedSampleRateIdx by remember { mutableIntStateOf(initialSampleRateIdx) }
+    var selectedSendRateIdx by remember {
+        mutableIntStateOf(SEND_RATES.indexOfFirst { it.hz == prefs.getInt("send_rate", 0) }.coerceAtLeast(0))
+    }
+    var sendSequence by remember { mutableStateOf(prefs.getBoolean("send_sequence", false)) }
+    var buttonEdges by remember { mutableStateOf(prefs.getBoolean("button_edges", false)) }
+    var recordSensors by remember { mutableStateOf(prefs.getBoolean("record_sensors", false)) }
+    var selectedPacketFormat by remember { mutableIntStateOf(prefs.getInt("packet_format", 0)) }
+    var orientationQuaternion by remember { mutableStateOf(prefs.getBoolean("orientation_quaternion", false)) }
+    var selectedOrientationSource by remember { mutableIntStateOf(prefs.getInt("orientation_source", 0)) }
+    var selectedSensorBatchIdx by remember {
+        mutableIntStateOf(SENSOR_BATCH_MS.indexOf(prefs.getInt("sensor_batch_ms", 0)).coerceAtLeast(0))
+    }
+    var selectedMotionGate by remember { mutableIntStateOf(prefs.getInt("motion_gate", 0)) }
+    var selectedIdleIdx by remember {
+        mutableIntStateOf(IDLE_SECONDS.indexOf(prefs.getInt("idle_seconds", 0)).coerceAtLeast(0))
+    }
+    var selectedBatchIdx by remember {
+        mutableIntStateOf(BATCH_SIZES.indexOf(prefs.getInt("batch_size", 1)).coerceAtLeast(0))
+    }
     var isRunning by remember { mutableStateOf(UdpSenderService.started) }
     // isConnecting is only true during the ~5s ACK window after a fresh Start press
     var isConnecting by remember { mutableStateOf(false) }
@@ -265,6 +393,16 @@ fun WishImuApp(
     var gyrStr by remember { mutableStateOf("") }
     var magStr by remember { mutableStateOf("") }
     var imuStr by remember { mutableStateOf("") }
+    var jitterStr by remember { mutableStateOf("") }
+    var rateStr by remember { mutableStateOf("") }
+    var eventsStr by remember { mutableStateOf("") }
+    var queueStr by remember { mutableStateOf("") }
+    // p50 / p99 / p99.9 per pipeline stage, indexed by Telemetry.STAGE_*
+    val latencyStrs = remember { mutableStateListOf("", "", "", "", "") }
+    var rttStr by remember { mutableStateOf("") }
+    var linkStr by remember { mutableStateOf("") }
+    // Bound service's telemetry while the debug panel is open, null otherwise
+    var telemetry by remember { mutableStateOf<Telemetry?>(null) }
 
     var indexExpanded by remember { mutableStateOf(false) }
 
@@ -364,27 +502,92 @@ fun WishImuApp(
         }
     }
 
-    // Debug polling coroutine — canceled and restarted whenever isRunning or showDebug changes
-    LaunchedEffect(isRunning, showDebug) {
-        if (!isRunning || !showDebug) return@LaunchedEffect
+    // Binds to the service while the debug panel is open. The service only publishes live
+    // values while someone is subscribed, so a closed panel costs the sensor path nothing.
+    DisposableEffect(isRunning, showDebug) {
+        if (!isRunning || !showDebug) return@DisposableEffect onDispose { }
+        var subscribed: Telemetry? = null
+        val connection = object : ServiceConnection {
+            override fun onServiceConnected(name: ComponentName?, service: IBinder?) {
+                subscribed = (service as? UdpSenderService.MyBinder)?.telemetry?.also { it.subscribe() }
+                telemetry = subscribed
+            }
+
+            override fun onServiceDisconnected(name: ComponentName?) {
+                subscribed = null
+                telemetry = null
+            }
+        }
+        // Flags 0: never create the service just to look at it
+        context.bindService(Intent(context, UdpSenderService::class.java), connection, 0)
+        onDispose {
+            subscribed?.unsubscribe()
+            telemetry = null
+            context.unbindService(connection)
+        }
+    }
+
+    // Debug polling coroutine — canceled and restarted whenever the bound telemetry changes.
+    // Snapshots and the text buffer are reused; rates are taken over 1 s windows.
+    LaunchedEffect(telemetry) {
+        val t = telemetry ?: return@LaunchedEffect
+        val sb = StringBuilder(64)
+        var cur = Telemetry.Snapshot()
+        var prev = Telemetry.Snapshot()
+        t.read(prev)
+        var ticks = 0
         while (true) {
             delay(100)
-            accStr = String.format(
-                Locale.ROOT, "%.2f  %.2f  %.2f",
-                UdpSenderService.debugAcc[0], UdpSenderService.debugAcc[1], UdpSenderService.debugAcc[2]
-            )
-            gyrStr = String.format(
-                Locale.ROOT, "%.2f  %.2f  %.2f",
-                UdpSenderService.debugGyr[0], UdpSenderService.debugGyr[1], UdpSenderService.debugGyr[2]
-            )
-            magStr = String.format(
-                Locale.ROOT, "%.2f  %.2f  %.2f",
-                UdpSenderService.debugMag[0], UdpSenderService.debugMag[1], UdpSenderService.debugMag[2]
-            )
-            imuStr = String.format(
-                Locale.ROOT, "%.2f  %.2f  %.2f",
-                UdpSenderService.debugImu[0], UdpSenderService.debugImu[1], UdpSenderService.debugImu[2]
-            )
+            t.read(cur)
+            accStr = sb.render(accStr) { appendVec3(cur.acc) }
+            gyrStr = sb.render(gyrStr) { appendVec3(cur.gyr) }
+            magStr = sb.render(magStr) { appendVec3(cur.mag) }
+            imuStr = sb.render(imuStr) { appendVec3(cur.ori) }
+            jitterStr = sb.render(jitterStr) { appendFixed(cur.jitterNanos / 1e6f, 3).append(" ms") }
+            queueStr = sb.render(queueStr) {
+                append(cur.queueDepth).append("  dropped ").append(cur.dropped)
+                append("  errors ").append(cur.sendErrors)
+            }
+            if (++ticks % 10 != 0) continue
+            rateStr = sb.render(rateStr) {
+                appendFixed(cur.packetRate(prev), 0).append(" pkt/s")
+                if (cur.suppressed != 0L) append("  gated ").appendFixed(cur.suppressedRate(prev), 0).append("/s")
+            }
+            eventsStr = sb.render(eventsStr) {
+                append("acc ").appendFixed(cur.eventRate(Telemetry.SENSOR_ACC, prev), 0)
+                append("  gyr ").appendFixed(cur.eventRate(Telemetry.SENSOR_GYR, prev), 0)
+                append("  mag ").appendFixed(cur.eventRate(Telemetry.SENSOR_MAG, prev), 0)
+                append("  rot ").appendFixed(cur.eventRate(Telemetry.SENSOR_ROT, prev), 0)
+            }
+            rttStr = sb.render(rttStr) {
+                if (cur.rttAcked == 0L) {
+                    append("needs sequence trailer + ps3pie")
+                } else {
+                    appendFixed(cur.rttSmoothedNanos / 1e6f, 2).append(" ±")
+                    appendFixed(cur.rttVariationNanos / 1e6f, 2).append(" ms  min ")
+                    appendFixed(cur.rttMinNanos / 1e6f, 2).append("  loss ")
+                    appendFixed(cur.lossRate(prev) * 100f, 1).append("%  reord ").append(cur.rttReordered)
+                }
+            }
+            linkStr = sb.render(linkStr) {
+                if (cur.recoveries == 0L) {
+                    append("no outage")
+                } else {
+                    append(cur.recoveries).append(" outages  last ")
+                    appendFixed(cur.recoveryNanos / 1e9f, 2).append(" s  worst ")
+                    appendFixed(cur.recoveryMaxNanos / 1e9f, 2).append(" s")
+                }
+            }
+            for (stage in 0 until Telemetry.STAGES) {
+                latencyStrs[stage] = sb.render(latencyStrs[stage]) {
+                    appendMicros(cur.latencyPercentile(stage, prev, 0.5)).append(" / ")
+                    appendMicros(cur.latencyPercentile(stage, prev, 0.99)).append(" / ")
+                    appendMicros(cur.latencyPercentile(stage, prev, 0.999))
+                }
+            }
+            val done = prev
+            prev = cur
+            cur = done
         }
     }
 
@@ -576,7 +779,7 @@ fun WishImuApp(
                             isConnecting = true  // Triggers progress spinner in topbar
                         }
                     } else {
-                        UdpSenderService.buttonState.set(0)
+                        UdpSenderService.releaseButtons()
                         onStop()
                         isRunning = false
                     }
@@ -636,9 +839,9 @@ fun WishImuApp(
                                     while (true) {
                                         val event = awaitPointerEvent(PointerEventPass.Initial)
                                         if (event.changes.any { it.pressed })
-                                            UdpSenderService.buttonState.updateAndGet { it or  0x01 }
+                                            UdpSenderService.setButton(0x01, true)
                                         else
-                                            UdpSenderService.buttonState.updateAndGet { it and 0x01.inv() }
+                                            UdpSenderService.setButton(0x01, false)
                                     }
                                 }
                             }
@@ -663,9 +866,9 @@ fun WishImuApp(
                                     while (true) {
                                         val event = awaitPointerEvent(PointerEventPass.Initial)
                                         if (event.changes.any { it.pressed })
-                                            UdpSenderService.buttonState.updateAndGet { it or  0x02 }
+                                            UdpSenderService.setButton(0x02, true)
                                         else
-                                            UdpSenderService.buttonState.updateAndGet { it and 0x02.inv() }
+                                            UdpSenderService.setButton(0x02, false)
                                     }
                                 }
                             }
@@ -706,6 +909,17 @@ fun WishImuApp(
                         Text("Gyr: $gyrStr", fontFamily = FontFamily.Monospace, style = MaterialTheme.typography.bodySmall)
                         Text("Mag: $magStr", fontFamily = FontFamily.Monospace, style = MaterialTheme.typography.bodySmall)
                         Text("IMU: $imuStr", fontFamily = FontFamily.Monospace, style = MaterialTheme.typography.bodySmall)
+                        Text("Jitter: $jitterStr", fontFamily = FontFamily.Monospace, style = MaterialTheme.typography.bodySmall)
+                        Text("Send: $rateStr", fontFamily = FontFamily.Monospace, style = MaterialTheme.typography.bodySmall)
+                        Text("Ev/s: $eventsStr", fontFamily = FontFamily.Monospace, style = MaterialTheme.typography.bodySmall)
+                        Text("Queue: $queueStr", fontFamily = FontFamily.Monospace, style = MaterialTheme.typography.bodySmall)
+                        Text("RTT: $rttStr", fontFamily = FontFamily.Monospace, style = MaterialTheme.typography.bodySmall)
+                        Text("Link: $linkStr", fontFamily = FontFamily.Monospace, style = MaterialTheme.typography.bodySmall)
+                        // Latency p50 / p99 / p99.9 over the last second, per stage
+                        Text("Latency ms (p50 / p99 / p99.9):", fontFamily = FontFamily.Monospace, style = MaterialTheme.typography.bodySmall)
+                        LATENCY_STAGES.forEachIndexed { stage, label ->
+                            Text("$label ${latencyStrs[stage]}", fontFamily = FontFamily.Monospace, style = MaterialTheme.typography.bodySmall)
+                        }
                     }
                 }
             }
@@ -787,6 +1001,315 @@ fun WishImuApp(
                         }
                     }
                 }
+
+                // Packet pacing — "Event" sends on every sensor event, a rate in Hz sends the
+                // latest sample once per tick. Button presses are always sent immediately.
+                Column(verticalArrangement = Arrangement.spacedBy(8.dp)) {
+                    Text("Send rate (Hz)", style = MaterialTheme.typography.bodyLarge)
+                    SingleChoiceSegmentedButtonRow(modifier = Modifier.fillMaxWidth()) {
+                        SEND_RATES.forEachIndexed { idx, option ->
+                            SegmentedButton(
+                                selected = selectedSendRateIdx == idx,
+                                onClick = {
+                                    selectedSendRateIdx = idx
+                                    prefs.edit { putInt("send_rate", option.hz) }
+                                },
+                                shape = SegmentedButtonDefaults.itemShape(idx, SEND_RATES.size)
+                            ) {
+                                Text(option.shortLabel)
+                            }
+                        }
+                    }
+                    Text(
+                        "Auto lowers the rate when Wi-Fi congests and probes back up; requires ps3pie and turns on sequence numbers",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant
+                    )
+                }
+
+                // Batching — packs several samples per datagram to cut per-packet overhead at
+                // high rates. Needs ps3pie; the original FreePIE receiver only reads 1-sample frames.
+                Column(verticalArrangement = Arrangement.spacedBy(8.dp)) {
+                    Text("Samples per packet", style = MaterialTheme.typography.bodyLarge)
+                    SingleChoiceSegmentedButtonRow(modifier = Modifier.fillMaxWidth()) {
+                        BATCH_SIZES.forEachIndexed { idx, size ->
+                            SegmentedButton(
+                                selected = selectedBatchIdx == idx,
+                                onClick = {
+                                    selectedBatchIdx = idx
+                                    prefs.edit { putInt("batch_size", size) }
+                                },
+                                shape = SegmentedButtonDefaults.itemShape(idx, BATCH_SIZES.size)
+                            ) {
+                                Text(size.toString())
+                            }
+                        }
+                    }
+                    Text(
+                        "Above 1 requires ps3pie and overrides the send rate. Applies on next Start",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant
+                    )
+                }
+
+                // Packet format — compact roughly halves frame size (less airtime on busy 2.4 GHz)
+                Column(verticalArrangement = Arrangement.spacedBy(8.dp)) {
+                    Text("Packet format", style = MaterialTheme.typography.bodyLarge)
+                    SingleChoiceSegmentedButtonRow(modifier = Modifier.fillMaxWidth()) {
+                        PACKET_FORMATS.forEachIndexed { idx, label ->
+                            SegmentedButton(
+                                selected = selectedPacketFormat == idx,
+                                onClick = {
+                                    selectedPacketFormat = idx
+                                    prefs.edit { putInt("packet_format", idx) }
+                                },
+                                shape = SegmentedButtonDefaults.itemShape(idx, PACKET_FORMATS.size)
+                            ) {
+                                Text(label)
+                            }
+                        }
+                    }
+                    Text(
+                        "Compact formats require ps3pie",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant
+                    )
+                }
+
+                // Orientation format — a quaternion skips the trig on the phone and has no
+                // gimbal lock; ps3pie still derives yaw/pitch/roll from it for older scripts.
+                Column(verticalArrangement = Arrangement.spacedBy(8.dp)) {
+                    Text("Orientation format", style = MaterialTheme.typography.bodyLarge)
+                    SingleChoiceSegmentedButtonRow(modifier = Modifier.fillMaxWidth()) {
+                        ORIENTATION_FORMATS.forEachIndexed { idx, label ->
+                            SegmentedButton(
+                                selected = (if (orientationQuaternion) 1 else 0) == idx,
+                                onClick = {
+                                    orientationQuaternion = idx == 1
+                                    prefs.edit { putBoolean("orientation_quaternion", idx == 1) }
+                                },
+                                shape = SegmentedButtonDefaults.itemShape(idx, ORIENTATION_FORMATS.size)
+                            ) {
+                                Text(label)
+                            }
+                        }
+                    }
+                    Text(
+                        "Quaternion requires ps3pie",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant
+                    )
+                }
+
+                // Orientation source — fusion integrates every raw gyro sample on the phone,
+                // so orientation runs at the gyro rate even where the OEM rotation vector is
+                // slow or missing (no gyroscope: accelerometer + magnetometer only)
+                Column(verticalArrangement = Arrangement.spacedBy(8.dp)) {
+                    Text("Orientation source", style = MaterialTheme.typography.bodyLarge)
+                    SingleChoiceSegmentedButtonRow(modifier = Modifier.fillMaxWidth()) {
+                        ORIENTATION_SOURCES.forEachIndexed { idx, label ->
+                            SegmentedButton(
+                                selected = selectedOrientationSource == idx,
+                                onClick = {
+                                    selectedOrientationSource = idx
+                                    prefs.edit { putInt("orientation_source", idx) }
+                                },
+                                shape = SegmentedButtonDefaults.itemShape(idx, ORIENTATION_SOURCES.size)
+                            ) {
+                                Text(label)
+                            }
+                        }
+                    }
+                    Text(
+                        "Works with any receiver. Applies on next Start",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant
+                    )
+                }
+
+                // Sequence trailer — appended after the button byte, so receivers that don't
+                // know it (original FreePIE) ignore it. Lets ps3pie count lost/reordered packets.
+                Row(
+                    modifier = Modifier
+                        .fillMaxWidth()
+                        .toggleable(
+                            value = sendSequence,
+                            onValueChange = { newValue ->
+                                sendSequence = newValue
+                                prefs.edit { putBoolean("send_sequence", newValue) }
+                            },
+                            role = Role.Switch
+                        )
+                        .padding(vertical = 8.dp),
+                    horizontalArrangement = Arrangement.SpaceBetween,
+                    verticalAlignment = Alignment.CenterVertically
+                ) {
+                    Column(modifier = Modifier.weight(1f).padding(end = 16.dp)) {
+                        Text("Sequence & timestamp", style = MaterialTheme.typography.bodyLarge)
+                        Text(
+                            "Adds a packet counter and sensor time for loss and latency tracking",
+                            style = MaterialTheme.typography.bodySmall,
+                            color = MaterialTheme.colorScheme.onSurfaceVariant
+                        )
+                    }
+                    // onCheckedChange = null: interaction handled by the Row's toggleable modifier
+                    Switch(checked = sendSequence, onCheckedChange = null)
+                }
+
+                // Button edges — per-button press/release counters at the end of every frame,
+                // and each edge repeated three times over ~30 ms, so ps3pie can replay clicks
+                // whose packets were lost. Receivers that don't know the counters ignore them.
+                Row(
+                    modifier = Modifier
+                        .fillMaxWidth()
+                        .toggleable(
+                            value = buttonEdges,
+                            onValueChange = { newValue ->
+                                buttonEdges = newValue
+                                prefs.edit { putBoolean("button_edges", newValue) }
+                            },
+                            role = Role.Switch
+                        )
+                        .padding(vertical = 8.dp),
+                    horizontalArrangement = Arrangement.SpaceBetween,
+                    verticalAlignment = Alignment.CenterVertically
+                ) {
+                    Column(modifier = Modifier.weight(1f).padding(end = 16.dp)) {
+                        Text("Loss-proof clicks", style = MaterialTheme.typography.bodyLarge)
+                        Text(
+                            "Repeats every button press and release and counts them, so ps3pie never misses a click",
+                            style = MaterialTheme.typography.bodySmall,
+                            color = MaterialTheme.colorScheme.onSurfaceVariant
+                        )
+                    }
+                    Switch(checked = buttonEdges, onCheckedChange = null)
+                }
+
+                // Sensor hub batching — trades latency for battery on long sessions: samples
+                // queue in the hardware FIFO and arrive in bursts sent as batch packets.
+                Column(verticalArrangement = Arrangement.spacedBy(8.dp)) {
+                    Text("Sensor batching (ms)", style = MaterialTheme.typography.bodyLarge)
+                    SingleChoiceSegmentedButtonRow(modifier = Modifier.fillMaxWidth()) {
+                        SENSOR_BATCH_MS.forEachIndexed { idx, ms ->
+                            SegmentedButton(
+                                selected = selectedSensorBatchIdx == idx,
+                                onClick = {
+                                    selectedSensorBatchIdx = idx
+                                    prefs.edit { putInt("sensor_batch_ms", ms) }
+                                },
+                                shape = SegmentedButtonDefaults.itemShape(idx, SENSOR_BATCH_MS.size)
+                            ) {
+                                Text(if (ms == 0) "Off" else ms.toString())
+                            }
+                        }
+                    }
+                    Text(
+                        "Battery saver: adds up to this much delay; button presses flush at once",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant
+                    )
+                }
+
+                // Motion gating — drops frames that barely differ from the last one sent, so a
+                // phone lying still stops running the host script at the full packet rate.
+                Column(verticalArrangement = Arrangement.spacedBy(8.dp)) {
+                    Text("Motion gating", style = MaterialTheme.typography.bodyLarge)
+                    SingleChoiceSegmentedButtonRow(modifier = Modifier.fillMaxWidth()) {
+                        MOTION_GATES.forEachIndexed { idx, option ->
+                            SegmentedButton(
+                                selected = selectedMotionGate == idx,
+                                onClick = {
+                                    selectedMotionGate = idx
+                                    prefs.edit { putInt("motion_gate", idx) }
+                                },
+                                shape = SegmentedButtonDefaults.itemShape(idx, MOTION_GATES.size)
+                            ) {
+                                Text(option.label)
+                            }
+                        }
+                    }
+                    Text(
+                        "Sends only on movement while still, plus a heartbeat; button presses always go out",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant
+                    )
+                }
+
+                // Idle power-down — a phone parked between uses keeps one slow accelerometer
+                // running instead of every sensor at full rate, and wakes them on movement.
+                Column(verticalArrangement = Arrangement.spacedBy(8.dp)) {
+                    Text("Power down when still (s)", style = MaterialTheme.typography.bodyLarge)
+                    SingleChoiceSegmentedButtonRow(modifier = Modifier.fillMaxWidth()) {
+                        IDLE_SECONDS.forEachIndexed { idx, seconds ->
+                            SegmentedButton(
+                                selected = selectedIdleIdx == idx,
+                                onClick = {
+                                    selectedIdleIdx = idx
+                                    prefs.edit { putInt("idle_seconds", seconds) }
+                                },
+                                shape = SegmentedButtonDefaults.itemShape(idx, IDLE_SECONDS.size)
+                            ) {
+                                Text(if (seconds == 0) "Off" else seconds.toString())
+                            }
+                        }
+                    }
+                    Text(
+                        "Battery saver: sensors restart as soon as the phone is picked up",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant
+                    )
+                }
+
+                // Record mode — every raw sensor event goes to a log file next to the stream,
+                // so drift and stutter reports come with the input that caused them.
+                Row(
+                    modifier = Modifier
+                        .fillMaxWidth()
+                        .toggleable(
+                            value = recordSensors,
+                            onValueChange = { newValue ->
+                                recordSensors = newValue
+                                prefs.edit { putBoolean("record_sensors", newValue) }
+                            },
+                            role = Role.Switch
+                        )
+                        .padding(vertical = 8.dp),
+                    horizontalArrangement = Arrangement.SpaceBetween,
+                    verticalAlignment = Alignment.CenterVertically
+                ) {
+                    Column(modifier = Modifier.weight(1f).padding(end = 16.dp)) {
+                        Text("Record sensors", style = MaterialTheme.typography.bodyLarge)
+                        Text(
+                            "Saves raw sensor data while streaming, for bug reports. Keeps the last 5",
+                            style = MaterialTheme.typography.bodySmall,
+                            color = MaterialTheme.colorScheme.onSurfaceVariant
+                        )
+                    }
+                    Switch(checked = recordSensors, onCheckedChange = null)
+                }
+                // Re-read whenever the sheet opens or streaming stops; the newest log is the
+                // one a user reporting a problem just made.
+                val latestRecording = remember(isRunning) {
+                    SensorRecorder.list(File(context.filesDir, SensorRecorder.DIRECTORY)).firstOrNull()
+                }
+                if (latestRecording != null) {
+                    androidx.compose.material3.TextButton(
+                        enabled = !isRunning,
+                        onClick = {
+                            val uri = FileProvider.getUriForFile(
+                                context, "${context.packageName}.recordings", latestRecording
+                            )
+                            val send = Intent(Intent.ACTION_SEND).apply {
+                                type = "application/octet-stream"
+                                putExtra(Intent.EXTRA_STREAM, uri)
+                                addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+                            }
+                            context.startActivity(Intent.createChooser(send, latestRecording.name))
+                        }
+                    ) {
+                        Text(if (isRunning) "Stop to share the recording" else "Share ${latestRecording.name}")
+                    }
+                }
             }
         }
     }
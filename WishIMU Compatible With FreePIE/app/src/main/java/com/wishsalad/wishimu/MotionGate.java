@@ -0,0 +1,84 @@
+package com.wishsalad.wishimu;
+
+import com.wishsalad.wishimu.protocol.SensorSample;
+
+/**
+ * Dead-band for the motion-gated send mode. A frame goes out only when some field moved
+ * further than its threshold from the frame last sent, the buttons changed, or
+ * heartbeatNanos passed without a send. A phone lying still thus sends heartbeats only:
+ * enough for ps3pie's acks and the app's ack timeout, while the host's loop() stays idle.
+ *
+ * Each component is compared with the last sent value rather than the previous sample, so
+ * drift too slow to cross the threshold between two samples still goes out once it adds up.
+ * Fields the frame does not carry are not compared. Worker thread only.
+ */
+final class MotionGate {
+
+    private final float accThreshold, gyrThreshold, magThreshold, oriThreshold;
+    private final boolean raw, orientation;
+    private final long heartbeatNanos;
+
+    /** The last sent frame's newest sample; orientation as the frame carried it. */
+    private final float[] acc = new float[3], gyr = new float[3], mag = new float[3];
+    private final float[] ori = new float[4];
+    private int buttons;
+    private long sentNanos;
+    private boolean primed;
+
+    /**
+     * @param raw          the frames carry acc/gyr/mag
+     * @param orientation  the frames carry orientation (yaw/pitch/roll in rad, or a quaternion)
+     * @param acc          dead-band per component in m/s²
+     * @param gyr          in rad/s
+     * @param mag          in µT
+     * @param ori          in rad, or quaternion units (≈ half the angle)
+     */
+    MotionGate(boolean raw, boolean orientation, float acc, float gyr, float mag, float ori,
+               long heartbeatNanos) {
+        this.raw = raw;
+        this.orientation = orientation;
+        this.accThreshold = acc;
+        this.gyrThreshold = gyr;
+        this.magThreshold = mag;
+        this.oriThreshold = ori;
+        this.heartbeatNanos = heartbeatNanos;
+    }
+
+    /** Whether {@code s}, with orientation {@code o}, left the dead-band around the last sent frame. */
+    boolean moved(SensorSample s, float[] o) {
+        if (!primed) return true;
+        if (raw && (exceeds(s.acc, acc, 3, accThreshold) || exceeds(s.gyr, gyr, 3, gyrThreshold)
+                || exceeds(s.mag, mag, 3, magThreshold))) {
+            return true;
+        }
+        return orientation && exceeds(o, ori, 4, oriThreshold);
+    }
+
+    /** Whether a frame is due at {@code nowNanos}: movement, a button change or the heartbeat. */
+    boolean admit(boolean moved, int buttons, long nowNanos) {
+        return moved || !primed || buttons != this.buttons || nowNanos - sentNanos >= heartbeatNanos;
+    }
+
+    /** The frame ending with sample {@code s} and orientation {@code o} went out. */
+    void onSent(SensorSample s, float[] o, int buttons, long nowNanos) {
+        System.arraycopy(s.acc, 0, acc, 0, 3);
+        System.arraycopy(s.gyr, 0, gyr, 0, 3);
+        System.arraycopy(s.mag, 0, mag, 0, 3);
+        System.arraycopy(o, 0, ori, 0, 4);
+        this.buttons = buttons;
+        sentNanos = nowNanos;
+        primed = true;
+    }
+
+    /** A button-only frame carrying {@code buttons} went out; the motion reference stays. */
+    void onButtonsSent(int buttons) {
+        this.buttons = buttons;
+    }
+
+    private static boolean exceeds(float[] v, float[] ref, int n, float threshold) {
+        for (int i = 0; i < n; i++) {
+            if (Math.abs(v[i] - ref[i]) > threshold) return true;
+        }
+        return false;
+    }
+}
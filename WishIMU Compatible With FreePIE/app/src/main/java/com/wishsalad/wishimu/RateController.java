@@ -0,0 +1,62 @@
+package com.wishsalad.wishimu;
+
+/**
+ * AIMD packet-rate controller for the adaptive send mode, driven by ack round trips.
+ *
+ * Once per control interval the sender reports what the acks showed over that interval.
+ * Loss above {@link #LOSS_LIMIT}, or a smoothed RTT well above the best RTT seen (packets
+ * are queueing somewhere between the socket and ps3pie), cuts the rate multiplicatively;
+ * a clean interval raises it by a fixed step. After a cut the controller waits one clean
+ * interval before probing up again, so the queue it just relieved can drain first.
+ *
+ * Intervals without any acks carry no information (host not running, receiver without
+ * echo support) and leave the rate alone.
+ */
+final class RateController {
+
+    /** Loss fraction above which an interval counts as congested. */
+    static final float LOSS_LIMIT = 0.02f;
+    /** Queueing delay tolerated on top of twice the minimum RTT before backing off. */
+    private static final long QUEUE_SLACK_NANOS = 2_000_000L;
+    private static final float DECREASE = 0.75f;
+
+    private final int minHz;
+    private final int maxHz;
+    private final int stepHz;
+    private float rateHz;
+    private boolean holding;
+
+    RateController(int minHz, int maxHz, int startHz) {
+        this.minHz = minHz;
+        this.maxHz = maxHz;
+        this.stepHz = Math.max(1, maxHz / 40);
+        this.rateHz = Math.max(minHz, Math.min(maxHz, startHz));
+    }
+
+    int rateHz() {
+        return Math.round(rateHz);
+    }
+
+    /**
+     * Feeds one control interval and returns the new rate in Hz.
+     *
+     * @param sent   sequenced datagrams sent during the interval
+     * @param acked  of those, acks matched during the interval
+     * @param srttNanos   smoothed RTT at the end of the interval
+     * @param minRttNanos lowest RTT seen so far
+     */
+    int update(long sent, long acked, long srttNanos, long minRttNanos) {
+        if (sent <= 0 || acked <= 0) return rateHz();
+        float loss = 1f - (float) acked / sent;
+        boolean queueing = minRttNanos > 0 && srttNanos > 2 * minRttNanos + QUEUE_SLACK_NANOS;
+        if (loss > LOSS_LIMIT || queueing) {
+            rateHz = Math.max(minHz, rateHz * DECREASE);
+            holding = true;
+        } else if (holding) {
+            holding = false;
+        } else {
+            rateHz = Math.min(maxHz, rateHz + stepHz);
+        }
+        return rateHz();
+    }
+}
@@ -0,0 +1,197 @@
+package com.wishsalad.wishimu;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.wishsalad.wishimu.protocol.SensorLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Record mode: every SensorEvent the service receives, appended to a {@link SensorLog} file
+ * for offline tuning and bug reports.
+ *
+ * The sensor thread only copies the event into a preallocated single-producer ring, like
+ * SampleRing but one slot per event rather than per coalesced sample, and never touches
+ * the file. A background writer thread drains the ring into a direct buffer and writes it
+ * to the FileChannel in 64 KiB chunks, or at least once a second while events trickle in.
+ * The writer also creates the directory, prunes old logs and opens the file, so starting a
+ * recording does no file I/O on the caller's (main) thread.
+ * If the disk falls behind by more than the ring holds (~2 s at four sensors × 500 Hz),
+ * events are dropped and counted rather than stalling the sensor thread.
+ */
+final class SensorRecorder {
+
+    /** Subdirectory of getFilesDir() holding the logs; shared through the FileProvider. */
+    static final String DIRECTORY = "recordings";
+    /** Logs kept on the device; older ones are deleted when a new recording starts. */
+    private static final int KEEP = 5;
+
+    private static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+    private static final long FLUSH_INTERVAL_NANOS = 1_000_000_000L;
+    private static final long IDLE_PARK_NANOS = 20_000_000L;
+
+    private final byte[] types = new byte[CAPACITY];
+    private final byte[] accuracies = new byte[CAPACITY];
+    private final byte[] counts = new byte[CAPACITY];
+    private final long[] timestamps = new long[CAPACITY];
+    private final float[] values = new float[CAPACITY * SensorLog.MAX_VALUES];
+
+    /** Index of the next slot to write. Written only by the sensor thread. */
+    private final AtomicLong head = new AtomicLong();
+    /** Index of the next slot to read. Written only by the writer thread. */
+    private final AtomicLong tail = new AtomicLong();
+    private long cachedTail;
+    private volatile long dropped;
+
+    private final File dir;
+    private final File file;
+    /** Opened by the writer thread. */
+    private FileChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    private final Thread writer;
+    private volatile boolean open = true;
+
+    private SensorRecorder(File dir, long wallMillis, long elapsedNanos) {
+        this.dir = dir;
+        file = new File(dir, String.format(Locale.ROOT, "sensors-%1$tY%1$tm%1$td-%1$tH%1$tM%1$tS%2$s",
+                wallMillis, SensorLog.FILE_EXTENSION));
+        SensorLog.putHeader(out, wallMillis, elapsedNanos);
+        writer = new Thread(this::drainLoop, "WishIMU-recorder");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Starts a new log in {@code dir} named after the current time. The writer thread creates
+     * it, deleting all but the newest logs there; if that fails it logs why and the recorder
+     * ignores further events.
+     *
+     * @param elapsedNanos SystemClock.elapsedRealtimeNanos() now, the base of SensorEvent.timestamp
+     */
+    static SensorRecorder start(File dir, long wallMillis, long elapsedNanos) {
+        SensorRecorder r = new SensorRecorder(dir, wallMillis, elapsedNanos);
+        r.writer.start();
+        return r;
+    }
+
+    /** Writer thread: creates the directory, prunes old logs and opens {@link #file}. */
+    private void openFile() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        File[] old = list(dir);
+        for (int i = KEEP - 1; i < old.length; i++) {
+            //noinspection ResultOfMethodCallIgnored
+            old[i].delete();
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /** Logs in {@code dir}, newest first. */
+    static File[] list(File dir) {
+        File[] files = dir.listFiles((d, n) -> n.endsWith(SensorLog.FILE_EXTENSION));
+        if (files == null) return new File[0];
+        Arrays.sort(files, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        return files;
+    }
+
+    File file() {
+        return file;
+    }
+
+    long dropped() {
+        return dropped;
+    }
+
+    /** Sensor thread only. Copies the event; never blocks. */
+    void record(int type, int accuracy, long timestamp, float[] v) {
+        if (!open) return;
+        long h = head.get();
+        if (h - cachedTail >= CAPACITY) {
+            cachedTail = tail.get();
+            if (h - cachedTail >= CAPACITY) {
+                //noinspection NonAtomicOperationOnVolatileField  single writer
+                dropped++;
+                return;
+            }
+        }
+        final int slot = (int) h & MASK;
+        final int n = Math.min(v.length, SensorLog.MAX_VALUES);
+        types[slot] = (byte) type;
+        accuracies[slot] = (byte) accuracy;
+        counts[slot] = (byte) n;
+        timestamps[slot] = timestamp;
+        System.arraycopy(v, 0, values, slot * SensorLog.MAX_VALUES, n);
+        head.lazySet(h + 1);
+    }
+
+    /**
+     * Stops recording: the writer drains what is queued, flushes and closes the file. Waits
+     * up to half a second for it; events recorded after this call may be lost.
+     */
+    void close() {
+        open = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(500);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void drainLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            openFile();
+        } catch (IOException e) {
+            Log.w("SensorRecorder", "Cannot record to " + file, e);
+            open = false;
+            return;
+        }
+        long lastFlush = System.nanoTime();
+        try {
+            while (true) {
+                boolean closing = !open;   // read before draining so nothing queued is missed
+                long t = tail.get();
+                long h = head.get();
+                for (; t < h; t++) {
+                    if (out.remaining() < SensorLog.MAX_RECORD_BYTES) {
+                        tail.lazySet(t);
+                        flush();
+                        lastFlush = System.nanoTime();
+                    }
+                    final int slot = (int) t & MASK;
+                    SensorLog.putRecord(out, types[slot], accuracies[slot], timestamps[slot],
+                            values, slot * SensorLog.MAX_VALUES, counts[slot]);
+                }
+                tail.lazySet(t);
+                if (closing) break;
+                if (out.position() > 0 && System.nanoTime() - lastFlush >= FLUSH_INTERVAL_NANOS) {
+                    flush();
+                    lastFlush = System.nanoTime();
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+            flush();
+        } catch (IOException e) {
+            Log.w("SensorRecorder", "Recording stopped", e);
+            open = false;
+        } finally {
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) channel.write(out);
+        out.clear();
+    }
+}
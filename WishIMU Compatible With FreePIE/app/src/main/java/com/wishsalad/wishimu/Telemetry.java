@@ -0,0 +1,255 @@
+package com.wishsalad.wishimu;
+
+import com.wishsalad.wishimu.protocol.LatencyHistogram;
+import com.wishsalad.wishimu.protocol.RttTracker;
+import com.wishsalad.wishimu.protocol.SampleRing;
+import com.wishsalad.wishimu.protocol.SensorSample;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Live pipeline telemetry for the debug panel, handed out through UdpSenderService.MyBinder.
+ *
+ * Three kinds of data:
+ * <ul>
+ *   <li>Counters (events per sensor, packets, send errors). Each slot has a single writer
+ *       and is bumped with an ordered store, so they cost next to nothing and always run;
+ *       readers turn two snapshots into rates.</li>
+ *   <li>Live values of the last sent sample (acc, gyr, mag, yaw/pitch/roll, jitter). Only
+ *       published by the worker while at least one consumer is subscribed, under a sequence
+ *       lock so a reader never sees half of one sample and half of the next.</li>
+ *   <li>Latency histograms of each pipeline stage, from SensorEvent.timestamp to the
+ *       return of the socket write, plus the ack round trip. Always recorded, one writer
+ *       per stage.</li>
+ * </ul>
+ * Neither side allocates: readers copy into a caller-owned {@link Snapshot}.
+ */
+final class Telemetry {
+
+    static final int SENSOR_ACC = 0;
+    static final int SENSOR_GYR = 1;
+    static final int SENSOR_MAG = 2;
+    static final int SENSOR_ROT = 3;
+    static final int SENSOR_COUNT = 4;
+
+    /** SensorEvent.timestamp → onSensorChanged: sensor hub, HAL and event delivery. */
+    static final int STAGE_DELIVERY = 0;
+    /** onSensorChanged → worker starts encoding: handoff, scheduler and any pacing/batching wait. */
+    static final int STAGE_HANDOFF = 1;
+    /** Worker starts encoding → socket write returns: encoding and the network stack. */
+    static final int STAGE_SEND = 2;
+    /** SensorEvent.timestamp → socket write returns. */
+    static final int STAGE_TOTAL = 3;
+    /** Socket write → ps3pie's echo of the sequence number arrives (sequence trailer only). */
+    static final int STAGE_RTT = 4;
+    static final int STAGES = 5;
+
+    private static final int PACKETS = SENSOR_COUNT;
+    private static final int SEND_ERRORS = SENSOR_COUNT + 1;
+    private static final int RECOVERIES = SENSOR_COUNT + 2;
+    private static final int RECOVERY_LAST = SENSOR_COUNT + 3;
+    private static final int RECOVERY_MAX = SENSOR_COUNT + 4;
+    private static final int SUPPRESSED = SENSOR_COUNT + 5;
+
+    // Float slots of the live block, stored as raw int bits.
+    private static final int ACC = 0, GYR = 3, MAG = 6, ORI = 9, JITTER = 12, VALUES = 13;
+
+    private final SampleRing queue;
+    private final RttTracker rtt;
+    private final AtomicLongArray counters = new AtomicLongArray(SENSOR_COUNT + 6);
+    private final AtomicIntegerArray values = new AtomicIntegerArray(VALUES);
+    /** Odd while the worker is writing {@link #values}. */
+    private final AtomicInteger seq = new AtomicInteger();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final LatencyHistogram[] latency = new LatencyHistogram[STAGES];
+
+    Telemetry(SampleRing queue, RttTracker rtt) {
+        this.queue = queue;
+        this.rtt = rtt;
+        for (int i = 0; i < STAGE_RTT; i++) latency[i] = new LatencyHistogram();
+        latency[STAGE_RTT] = rtt.histogram();
+    }
+
+    /** Consumer-owned copy of the telemetry at one instant. */
+    static final class Snapshot {
+        final float[] acc = new float[3];
+        final float[] gyr = new float[3];
+        final float[] mag = new float[3];
+        /** Yaw, pitch, roll in radians, as SensorManager.getOrientation reports them. */
+        final float[] ori = new float[3];
+        float jitterNanos;
+        final long[] events = new long[SENSOR_COUNT];
+        long packets;
+        long sendErrors;
+        /** Frames held back by the motion gate. */
+        long suppressed;
+        int queueDepth;
+        long dropped;
+        /** System.nanoTime() when the snapshot was taken; the time base for rate(). */
+        long takenNanos;
+        /** Sequenced datagrams sent / matched by an ack / acked out of order, since Start. */
+        long rttSent, rttAcked, rttReordered;
+        /** RFC 6298 smoothed RTT and its variation, and the lowest RTT seen; 0 without acks. */
+        long rttSmoothedNanos, rttVariationNanos, rttMinNanos;
+        /**
+         * Network outages recovered from, and the last and longest recovery: from losing the
+         * network or the first failed send to the first ack afterwards. 0 before any.
+         */
+        long recoveries, recoveryNanos, recoveryMaxNanos;
+
+        /**
+         * Fraction of sequenced datagrams since {@code earlier} without a matching ack: lost on
+         * the way out, ack lost on the way back, or acked too late. 0 when nothing was sent.
+         */
+        float lossRate(Snapshot earlier) {
+            long sentDelta = rttSent - earlier.rttSent;
+            if (sentDelta <= 0) return 0f;
+            float lost = 1f - (float) (rttAcked - earlier.rttAcked) / sentDelta;
+            return Math.max(0f, Math.min(1f, lost));
+        }
+
+        /** Histogram bucket counts per STAGE_*, cumulative since the service was created. */
+        final long[][] latency = new long[STAGES][LatencyHistogram.BUCKETS];
+
+        /**
+         * Latency of {@code stage} in µs at quantile {@code q}, over the values recorded
+         * since {@code earlier} (or since the start when null). -1 when there were none.
+         */
+        long latencyPercentile(int stage, Snapshot earlier, double q) {
+            return LatencyHistogram.percentile(latency[stage],
+                    earlier == null ? null : earlier.latency[stage], q);
+        }
+
+        /** Events per second of {@code sensor} since {@code earlier}. */
+        float eventRate(int sensor, Snapshot earlier) {
+            return rate(events[sensor] - earlier.events[sensor], earlier);
+        }
+
+        /** Packets per second since {@code earlier}. */
+        float packetRate(Snapshot earlier) {
+            return rate(packets - earlier.packets, earlier);
+        }
+
+        /** Frames per second the motion gate held back since {@code earlier}. */
+        float suppressedRate(Snapshot earlier) {
+            return rate(suppressed - earlier.suppressed, earlier);
+        }
+
+        private float rate(long delta, Snapshot earlier) {
+            long dt = takenNanos - earlier.takenNanos;
+            return dt <= 0 ? 0f : delta * 1e9f / dt;
+        }
+    }
+
+    /** Starts live-value publishing. Pair every call with {@link #unsubscribe()}. */
+    void subscribe() {
+        subscribers.incrementAndGet();
+    }
+
+    void unsubscribe() {
+        subscribers.decrementAndGet();
+    }
+
+    /** Worker side: whether publish() is worth the work. */
+    boolean isSubscribed() {
+        return subscribers.get() > 0;
+    }
+
+    /** Sensor thread only. */
+    void countEvent(int sensor) {
+        counters.lazySet(sensor, counters.get(sensor) + 1);
+    }
+
+    /** Worker thread only. */
+    void countPacket() {
+        counters.lazySet(PACKETS, counters.get(PACKETS) + 1);
+    }
+
+    /** Worker thread only. */
+    void countSendError() {
+        counters.lazySet(SEND_ERRORS, counters.get(SEND_ERRORS) + 1);
+    }
+
+    /** Worker thread only. */
+    void countSuppressed() {
+        counters.lazySet(SUPPRESSED, counters.get(SUPPRESSED) + 1);
+    }
+
+    /** Worker thread only: the link is back, {@code nanos} after it went down. */
+    void recordRecovery(long nanos) {
+        counters.lazySet(RECOVERIES, counters.get(RECOVERIES) + 1);
+        counters.lazySet(RECOVERY_LAST, nanos);
+        if (nanos > counters.get(RECOVERY_MAX)) counters.lazySet(RECOVERY_MAX, nanos);
+    }
+
+    /** Sensor thread for STAGE_DELIVERY, worker thread for the others. */
+    void recordLatency(int stage, long nanos) {
+        latency[stage].recordNanos(nanos);
+    }
+
+    /** Worker thread only: publishes the live values of the last sent sample. */
+    void publish(SensorSample s, float[] ypr, long jitterNanos) {
+        final AtomicIntegerArray v = values;
+        int next = seq.get() + 1;
+        seq.set(next);                          // odd: write in progress
+        for (int i = 0; i < 3; i++) {
+            v.lazySet(ACC + i, Float.floatToRawIntBits(s.acc[i]));
+            v.lazySet(GYR + i, Float.floatToRawIntBits(s.gyr[i]));
+            v.lazySet(MAG + i, Float.floatToRawIntBits(s.mag[i]));
+            v.lazySet(ORI + i, Float.floatToRawIntBits(ypr[i]));
+        }
+        v.lazySet(JITTER, Float.floatToRawIntBits(jitterNanos));
+        seq.set(next + 1);                      // even: consistent again
+    }
+
+    /**
+     * Any thread: copies the current telemetry into {@code dst}. Returns false, leaving the
+     * live values of {@code dst} as they were, if the worker kept overwriting them; counters
+     * and the queue figures are always filled in.
+     */
+    boolean read(Snapshot dst) {
+        dst.takenNanos = System.nanoTime();
+        for (int i = 0; i < SENSOR_COUNT; i++) dst.events[i] = counters.get(i);
+        dst.packets = counters.get(PACKETS);
+        dst.sendErrors = counters.get(SEND_ERRORS);
+        dst.suppressed = counters.get(SUPPRESSED);
+        dst.recoveries = counters.get(RECOVERIES);
+        dst.recoveryNanos = counters.get(RECOVERY_LAST);
+        dst.recoveryMaxNanos = counters.get(RECOVERY_MAX);
+        dst.queueDepth = queue.size();
+        dst.dropped = queue.dropped();
+        for (int i = 0; i < STAGES; i++) latency[i].copyTo(dst.latency[i]);
+        // Acked before sent: a reader racing the two counters never sees more acks than sends.
+        dst.rttAcked = rtt.acked();
+        dst.rttSent = rtt.sent();
+        dst.rttReordered = rtt.reordered();
+        dst.rttSmoothedNanos = rtt.smoothedNanos();
+        dst.rttVariationNanos = rtt.variationNanos();
+        dst.rttMinNanos = rtt.minNanos();
+
+        final AtomicIntegerArray v = values;
+        for (int attempt = 0; attempt < 4; attempt++) {
+            int before = seq.get();
+            if ((before & 1) != 0) continue;
+            float jitter = Float.intBitsToFloat(v.get(JITTER));
+            float a0 = f(ACC), a1 = f(ACC + 1), a2 = f(ACC + 2);
+            float g0 = f(GYR), g1 = f(GYR + 1), g2 = f(GYR + 2);
+            float m0 = f(MAG), m1 = f(MAG + 1), m2 = f(MAG + 2);
+            float o0 = f(ORI), o1 = f(ORI + 1), o2 = f(ORI + 2);
+            if (seq.get() != before) continue;
+            dst.acc[0] = a0; dst.acc[1] = a1; dst.acc[2] = a2;
+            dst.gyr[0] = g0; dst.gyr[1] = g1; dst.gyr[2] = g2;
+            dst.mag[0] = m0; dst.mag[1] = m1; dst.mag[2] = m2;
+            dst.ori[0] = o0; dst.ori[1] = o1; dst.ori[2] = o2;
+            dst.jitterNanos = jitter;
+            return true;
+        }
+        return false;
+    }
+
+    private float f(int slot) {
+        return Float.intBitsToFloat(values.get(slot));
+    }
+}
@@ -13,29 +13,53 @@ import android.os.Build;
 import android.content.pm.ServiceInfo;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
 import android.media.VolumeProvider;
 import android.media.session.MediaSession;
 import android.media.session.PlaybackState;
+import android.net.ConnectivityManager;
+import android.net.Network;
 import android.net.wifi.WifiManager;
 import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.core.content.ContextCompat;
 
+import com.wishsalad.wishimu.protocol.FrameEncoder;
+import com.wishsalad.wishimu.protocol.MadgwickFilter;
+import com.wishsalad.wishimu.protocol.MahonyFilter;
+import com.wishsalad.wishimu.protocol.OrientationSource;
+import com.wishsalad.wishimu.protocol.RotationMath;
+import com.wishsalad.wishimu.protocol.RttTracker;
+import com.wishsalad.wishimu.protocol.SampleRing;
+import com.wishsalad.wishimu.protocol.SensorSample;
+import com.wishsalad.wishimu.protocol.WireFormat;
+
+import java.io.File;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketTimeoutException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
-public class UdpSenderService extends Service implements SensorEventListener {
+public class UdpSenderService extends Service implements SensorEventListener2 {
     /** True while the service is running. Read by MainActivity.onResume() to sync UI state. */
     public static volatile boolean started = false;
 
@@ -47,43 +71,78 @@ public class UdpSenderService extends Service implements SensorEventListener {
     private static volatile UdpSenderService instance;
 
     /**
-     * Wakes the sensor-data worker thread so it sends a UDP packet immediately,
-     * rather than waiting for the next sensor event (up to 20 ms at SENSOR_DELAY_GAME).
-     * Called by VolumeKeyService on every press and release for instant click transmission.
-     * Safe to call from any thread; no-op if the service is not running.
+     * Presses ({@code down}) or releases the buttons in {@code bits}. When that changes the
+     * state, the edge counters of the buttons that flipped advance and the worker is woken to
+     * send it. Called by MainActivity, VolumeKeyService and the VolumeProvider fallback.
+     * Safe to call from any thread; lock-free.
+     */
+    public static void setButton(int bits, boolean down) {
+        int prev, next;
+        do {
+            prev = buttonState.get();
+            final int state = down ? prev | bits : prev & ~bits;
+            final int flipped = (prev ^ state) & 0xFF;
+            if (flipped == 0) return;
+            next = state;
+            for (int i = 0; i < WireFormat.EDGE_BUTTONS; i++) {
+                if ((flipped & 1 << i) == 0) continue;
+                final int shift = 8 * (i + 1);
+                next = (next & ~(0xFF << shift)) | ((next >>> shift) + 1 & 0xFF) << shift;
+            }
+        } while (!buttonState.compareAndSet(prev, next));
+        wakeWorker();
+    }
+
+    /** Releases every button, counting the edges like setButton(). */
+    public static void releaseButtons() {
+        setButton(0xFF, false);
+    }
+
+    /**
+     * Wakes the sensor-data worker thread so it sends the button state immediately in a
+     * button-only frame, rather than waiting for the next sensor event (up to 20 ms at
+     * SENSOR_DELAY_GAME) or batch. Called by setButton() on every press and release for
+     * instant click transmission. Safe to call from any thread; no-op if the service is not
+     * running. Lock-free: never waits for a send that is already in progress.
      */
     public static void wakeWorker() {
         UdpSenderService svc = instance;
-        if (svc != null && svc.running) synchronized (svc) { svc.notifyAll(); }
+        if (svc != null && svc.running) {
+            svc.buttonsChanged.set(true);
+            svc.wake();
+            // Samples may be sitting in the sensor hub FIFO; ask for them now so the frames
+            // around the click carry current motion. onFlushCompleted() sends them.
+            if (svc.sensorLatencyUs > 0) svc.sensorManager.flush(svc);
+        }
     }
 
-    /** Latest sensor snapshot for debug display. Written under synchronized(instance), read by MainActivity Handler. */
-    public static final float[] debugAcc = new float[3];
-    public static final float[] debugGyr = new float[3];
-    public static final float[] debugMag = new float[3];
-    public static final float[] debugImu = new float[3];
-
     /** Last worker error, readable by the Activity without binding. Null when OK. */
     public static volatile String debugError = null;
 
-    /** Ack-based connectivity: epoch ms of last ack received from pc, 0 if none yet. */
-    private volatile long lastAckTime = 0;
-    /** Epoch ms when the current connection attempt started (for the initial timeout). */
-    private volatile long connectionStartTime = 0;
+    /** Ack-based connectivity: epoch ms of last ack received from pc, 0 if none yet. Worker-owned. */
+    private long lastAckTime = 0;
+    /** Epoch ms when the current connection attempt started (for the initial timeout). Worker-owned. */
+    private long connectionStartTime = 0;
     private static final long ACK_TIMEOUT_MS = 5000;
+    /**
+     * Retry delay after the first failed connection while a network is up; doubles with each
+     * further failure up to BACKOFF_MAX_NANOS, and each delay is jittered over its upper half.
+     */
+    private static final long BACKOFF_MIN_NANOS = 100_000_000L;
+    private static final long BACKOFF_MAX_NANOS = 6_400_000_000L;
 
     private final IBinder mBinder = new MyBinder();
     private PowerManager mPowerManager;
     private WifiManager mWifiManager;
+    private ConnectivityManager mConnectivityManager;
 
     public static final String ACTION_STOP = "ACTION_STOP";
 
-    private static final byte SEND_RAW = 0x01;
-    private static final byte SEND_ORIENTATION = 0x02;
-    private static final byte SEND_BUTTONS = 0x04;
-    private static final byte SEND_NONE = 0x00;
-
-    /** Button bitmask written by MainActivity and read by the worker thread. Bit 0 = fire. */
+    /**
+     * Button bitmask in bits 0-7 (bit 0 = fire), and in bits 8-31 a wrapping transition
+     * counter per button 0-2, as FrameEncoder takes them. Changed only through setButton(),
+     * which keeps both in step; read by the worker thread.
+     */
     public static final AtomicInteger buttonState = new AtomicInteger(0);
 
     /** True when volume buttons should be intercepted as mouse clicks. Updated by MainActivity. */
@@ -91,38 +150,223 @@ public class UdpSenderService extends Service implements SensorEventListener {
     private static final String TAG_WAKE_LOCK = "FreePIE:WakeLock";
     private static final String TAG_WIFI_LOCK = "FreePIE:WifiLock";
 
-    private final float[] acc = new float[]{0, 0, 0};
-    private final float[] mag = new float[]{0, 0, 0};
-    private final float[] gyr = new float[]{0, 0, 0};
-    private final float[] imu = new float[]{0, 0, 0};
-
-    private final float[] rotationVector = new float[3];
+    /** Sensor state as seen by the sensor thread. Only touched in onSensorChanged(). */
+    private final SensorSample current = new SensorSample();
+    /** Sample being encoded. Only touched by the worker thread. */
+    private final SensorSample outgoing = new SensorSample();
+    private final SensorSample[] single = { outgoing };
+    /**
+     * Lock-free handoff from the sensor thread to the worker. Replaces the former
+     * synchronized/wait/notifyAll pairing, under which a slow send held the
+     * monitor that every sensor callback needed.
+     */
+    private final SampleRing samples = new SampleRing(64);
+    /**
+     * Non-null while record mode is on: every SensorEvent also goes to a log file. Set before
+     * the sensors are registered and cleared after they are unregistered.
+     */
+    private volatile SensorRecorder recorder;
+    /** Ack round-trip statistics; fed only while the sequence trailer is on. */
+    private final RttTracker rtt = new RttTracker();
+    /** Counters and live values for the debug panel; see MyBinder.getTelemetry(). */
+    private final Telemetry telemetry = new Telemetry(samples, rtt);
+    /** Worker-owned yaw/pitch/roll scratch for telemetry. */
+    private final float[] telemetryYpr = new float[3];
+    /** Set by wakeWorker(): the worker sends a button-only frame on its next wake. */
+    private final AtomicBoolean buttonsChanged = new AtomicBoolean();
+    /** Set by onFlushCompleted() so paced and batched modes send the flushed samples at once. */
+    private final AtomicBoolean sendRequested = new AtomicBoolean();
+
+    /** Worker-owned orientation scratch: yaw/pitch/roll, or w/x/y/z in quaternion mode. */
+    private final float[] orientation = new float[4];
     private final float[] rotationMatrix = new float[16];
 
     private final float[] R_ = new float[9];
     private final float[] I = new float[9];
 
-    private DatagramSocket socket;
+    /**
+     * What belongs to one worker thread alone. stop() only clears the stop token, and
+     * worker.join() may time out (e.g. during a slow DNS lookup). An old worker that is still
+     * running then sees its own token cleared, and closes its own selector and channel.
+     * It can neither stop the worker a restart started nor send on that worker's channel.
+     */
+    private static final class Link {
+        /** Cleared by stop(); the worker finishes as soon as it sees it. */
+        volatile boolean running = true;
+        /**
+         * The worker waits here for everything: sensor samples and button wakes (wake()),
+         * acks (the channel is registered for OP_READ) and its own deadlines. One thread thus
+         * sends, reads acks and checks the ack timeout, and nothing blocks outside select().
+         * Opened and closed by the worker; other threads only call wakeup() on it.
+         */
+        volatile Selector selector;
+        /**
+         * Connected to the target for the lifetime of one connection, so write() skips the
+         * per-datagram address resolution and route lookup of an unconnected
+         * DatagramSocket.send(). Worker-only.
+         */
+        DatagramChannel channel;
+    }
+    /** Link of the current worker; null while stopped. wake() goes through it. */
+    private volatile Link link;
+    /** "ip:port" of the current target, for the notification. Worker-owned. */
+    private String targetLabel;
+    /** Worker-owned: when the RTT/loss notification is next refreshed, and the counters then. */
+    private long nextStatusNanos, statusSent, statusAcked;
+    private final ByteBuffer ackBuf = ByteBuffer.allocateDirect(8).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Follows the default network while the service runs: a network other than the one the
+     * channel was opened on, or any network after there was none, makes the worker reconnect
+     * at once instead of waiting for a send to fail. Registered in onStartCommand(),
+     * unregistered in stop(); the callbacks only set the fields below and wake the worker.
+     */
+    private ConnectivityManager.NetworkCallback networkCallback;
+    /** Current default network, or null while there is none. */
+    private volatile Network network;
+    /** Network the open channel was created on. Written by the worker. */
+    private volatile Network channelNetwork;
+    /** Set by the callback when the worker should reconnect; cleared as it does. */
+    private final AtomicBoolean networkChanged = new AtomicBoolean();
+    /** elapsedRealtimeNanos when the default network was lost, 0 once the worker took note. */
+    private volatile long networkLostNanos;
+    /**
+     * Worker-owned. Start of the current outage (elapsedRealtimeNanos), 0 while connected: the
+     * time from here to the first ack afterwards goes to the telemetry as recovery time.
+     */
+    private long outageStartNanos;
+    /** Worker-owned: failed connections in a row, for the backoff. A sent datagram resets it. */
+    private int failures;
     private byte deviceIndex;
     private boolean sendOrientation;
     private boolean sendRaw;
     private int sampleRate;
+    /**
+     * Sender tick period in ns, or 0 to send once per sensor event (the FreePIE behavior).
+     * When paced, the worker sends the latest coalesced sample once per tick no matter how
+     * many sensors are registered; button edges via wakeWorker() still go out immediately.
+     */
+    private long sendPeriodNanos;
+    /**
+     * Non-null in adaptive mode (sendRate extra < 0): the worker retunes sendPeriodNanos every
+     * CONTROL_INTERVAL_NANOS from the ack round trips, trading packet rate for latency when
+     * the link congests. Needs the sequence trailer, which adaptive mode switches on.
+     */
+    private RateController rateController;
+    private static final long CONTROL_INTERVAL_NANOS = 250_000_000L;
+    /**
+     * Non-null in motion-gated mode (motionGate extra): frames that barely differ from the
+     * last one sent are dropped before encoding, apart from a heartbeat every
+     * gateHeartbeatMs. Button changes always pass.
+     */
+    private MotionGate motionGate;
+    /** Worker-owned: end of the current control interval and the RTT counters at its start. */
+    private long nextControlNanos, controlSent, controlAcked;
+    /**
+     * Samples per datagram, or 1 for the legacy single-sample frame. When greater than 1 the
+     * worker packs consecutive samples into one BATCH frame and flushes early once the
+     * oldest pending sample has waited maxBatchLatencyNanos. Takes precedence over pacing.
+     */
+    private int batchSize = 1;
+    private boolean sendSequence;
+    private boolean sendQuaternion;
+    /**
+     * Button edges mode (buttonEdges extra): frames carry the EDGES counters, and each button
+     * edge is repeated EDGE_REPEATS times at growing gaps so a lost datagram or two cannot
+     * swallow a click. The repeats span about 30 ms, longer than a Wi-Fi loss burst usually
+     * lasts, and cost three 7-19 byte datagrams per edge.
+     */
+    private boolean buttonEdges;
+    private static final int EDGE_REPEATS = 3;
+    private static final long EDGE_REPEAT_GAP_NANOS = 4_000_000L;
+    /** Worker-owned: repeats of the last button edge still to send, when the next is due and the gap after it. */
+    private int repeatsLeft;
+    private long repeatAtNanos, repeatGapNanos;
+    /**
+     * Frame encoder of the wire protocol module. Holds the sequence counter and the compact
+     * keyframe state; configured in onStartCommand(), otherwise only touched by the worker.
+     */
+    private final FrameEncoder encoder = new FrameEncoder();
+    private long maxBatchLatencyNanos;
+    /** Preallocated batch being encoded. Only touched by the worker thread. */
+    private final SensorSample[] batch = new SensorSample[MAX_BATCH];
+    {
+        for (int i = 0; i < MAX_BATCH; i++) batch[i] = new SensorSample();
+    }
+    /**
+     * Sensor whose events define one sample in batch mode, so a batch holds one entry per
+     * physical sample period instead of one per registered sensor.
+     */
+    private int clockSensorType;
+    /**
+     * maxReportLatencyUs passed to registerListener, or 0 to deliver every sample as it is
+     * taken. When non-zero the sensor hub queues samples in its FIFO and hands them over in
+     * bursts, so the application processor (and, through batch frames, the radio) wakes a few
+     * times per second instead of at the sample rate.
+     */
+    private int sensorLatencyUs;
+    /**
+     * Non-null when the idle power-down is on (idleSeconds extra): once the phone has been
+     * still that long, every sensor but a slow accelerometer is switched off, and the full set
+     * comes back on the first reading that moved. Sensor thread only, like {@link #idle}.
+     */
+    private IdleDetector idleDetector;
+    private boolean idle;
+    /**
+     * The accelerometer runs only to feed {@link #idleDetector}: the system rotation vector
+     * is the sole sensor sent, and the detector cannot judge stillness from it. Its readings
+     * are not sent until the phone goes idle. Sensor thread only.
+     */
+    private boolean idleAccelerometer;
+    /** Accelerometer period while idle: motion is noticed within ~50 ms. */
+    private static final int IDLE_SAMPLING_US = 50_000;
+
+    /**
+     * Sensor callbacks are delivered here instead of on the main looper, so Compose
+     * recomposition, the debug polling coroutine and notification updates cannot delay them.
+     * Runs at audio priority, like the worker.
+     */
+    private HandlerThread sensorThread;
+    private Handler sensorHandler;
+    /**
+     * Smoothed frame-to-frame jitter of the pipeline, in ns: RFC 3550 interarrival jitter with
+     * the sensor timestamp as the media clock and the channel.write() return as the arrival.
+     * Worker-owned; reaches the debug panel through the telemetry.
+     */
+    private long jitterNanos, lastJitterSensorTs, lastJitterSentNanos;
     private SensorManager sensorManager;
 
     private MediaSession mediaSession;
     // Schedules button-release events when no key-up is available (VolumeProvider only gets press,
     // used as a fallback when VolumeKeyService / AccessibilityService is not enabled by the user)
     private final Handler handler = new Handler(Looper.getMainLooper());
-    private final Runnable releaseVolUp   = () -> { buttonState.updateAndGet(b -> b & ~0x01); wakeWorker(); };
-    private final Runnable releaseVolDown = () -> { buttonState.updateAndGet(b -> b & ~0x02); wakeWorker(); };
+    private final Runnable releaseVolUp   = () -> setButton(0x01, false);
+    private final Runnable releaseVolDown = () -> setButton(0x02, false);
 
-    private Thread worker;
+    private volatile Thread worker;
     private volatile boolean running;
     private boolean hasGyro;
+    /**
+     * On-device fusion replacing TYPE_ROTATION_VECTOR, or null to use the platform's. Fed on
+     * the sensor thread, since it has to see every gyro sample; it writes the rotation vector
+     * into the sample and the worker derives the outgoing orientation from it as usual.
+     */
+    private OrientationSource fusion;
+    /** Sensor whose events step the fusion: the gyroscope, or the accelerometer without one. */
+    private int fusionSensorType;
+    private long fusionLastTimestamp;
+
+    static final int ORIENTATION_SYSTEM = 0;
+    static final int ORIENTATION_MADGWICK = 1;
+    static final int ORIENTATION_MAHONY = 2;
     private WifiManager.WifiLock wifiLock;
     private PowerManager.WakeLock wakeLock;
-    private final DatagramPacket p = new DatagramPacket(new byte[]{}, 0);
-    private final byte[] buf = new byte[52]; // 50 sensor bytes + 1 buttons byte + 1 spare
+    /** Upper bound for batchSize; keeps a full batch frame well under a 1500-byte MTU. */
+    static final int MAX_BATCH = WireFormat.MAX_BATCH;
+    // Direct and little-endian: frames are encoded in place and handed to the kernel without
+    // an intermediate heap copy, and nothing is allocated per packet.
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(WireFormat.MAX_FRAME_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
 
     private String lastError;
 
@@ -131,44 +375,69 @@ public class UdpSenderService extends Service implements SensorEventListener {
         public void onReceive(Context context, Intent intent) {
             // Compare constant first to avoid NullPointerException
             if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
-                register_sensors();
+                // On the sensor thread, which owns the idle state register_sensors() resets.
+                final Handler h = sensorHandler;
+                if (h != null) h.post(UdpSenderService.this::register_sensors);
             }
         }
     };
 
     public void register_sensors() {
         sensorManager.unregisterListener(this);
-        if (sendRaw) {
-            sensorManager.registerListener(this,
-                    sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-                    sampleRate);
+        idle = false;
+        if (idleDetector != null) idleDetector.reset();
+        final boolean fused = fusion != null;
+        clockSensorType = (sendRaw || fused) && hasGyro ? Sensor.TYPE_GYROSCOPE
+                : sendOrientation && hasGyro ? Sensor.TYPE_ROTATION_VECTOR
+                : Sensor.TYPE_ACCELEROMETER;
+        fusionSensorType = hasGyro ? Sensor.TYPE_GYROSCOPE : Sensor.TYPE_ACCELEROMETER;
+        fusionLastTimestamp = 0;
+        if (sendRaw || fused) {
+            listen(Sensor.TYPE_ACCELEROMETER);
             if (hasGyro)
-                sensorManager.registerListener(this,
-                        sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE),
-                        sampleRate);
+                listen(Sensor.TYPE_GYROSCOPE);
 
-            sensorManager.registerListener(this,
-                    sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD),
-                    sampleRate);
+            listen(Sensor.TYPE_MAGNETIC_FIELD);
         }
-        if (sendOrientation) {
-            if (hasGyro)
-                sensorManager.registerListener(this,
-                        sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR),
-                        sampleRate);
-            else {
-                if (!sendRaw) {
-                    sensorManager.registerListener(this,
-                            sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD),
-                            sampleRate);
+        idleAccelerometer = false;
+        if (sendOrientation && !fused) {
+            if (hasGyro) {
+                listen(Sensor.TYPE_ROTATION_VECTOR);
+                if (!sendRaw && idleDetector != null) {
+                    idleAccelerometer = true;
                     sensorManager.registerListener(this,
                             sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-                            sampleRate);
+                            IDLE_SAMPLING_US, sensorHandler);
+                }
+            } else {
+                if (!sendRaw) {
+                    listen(Sensor.TYPE_MAGNETIC_FIELD);
+                    listen(Sensor.TYPE_ACCELEROMETER);
                 }
             }
         }
     }
 
+    /**
+     * Sensor thread: nothing moved for the idle timeout. Leaves only a slow accelerometer,
+     * which also clocks the batches meanwhile so heartbeats and button frames keep flowing.
+     */
+    private void enterIdle() {
+        sensorManager.unregisterListener(this);
+        idle = true;
+        clockSensorType = Sensor.TYPE_ACCELEROMETER;
+        sensorManager.registerListener(this, sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
+                IDLE_SAMPLING_US, sensorHandler);
+    }
+
+    private void listen(int sensorType) {
+        Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+        if (sensorLatencyUs > 0)
+            sensorManager.registerListener(this, sensor, sampleRate, sensorLatencyUs, sensorHandler);
+        else
+            sensorManager.registerListener(this, sensor, sampleRate, sensorHandler);
+    }
+
     @SuppressWarnings("unused") // Public methods called by the Activity are marked this way
     public String getLastError() {
         synchronized (this) {
@@ -182,20 +451,6 @@ public class UdpSenderService extends Service implements SensorEventListener {
         updateNotification("⚠ Connection error – retrying...", android.R.drawable.ic_dialog_alert);
     }
 
-    @SuppressWarnings("unused")
-    public String debug(float[] acc_, float[] mag_, float[] gyr_, float[] imu_) {
-        synchronized (this) {
-            System.arraycopy(acc, 0, acc_, 0, 3);
-            System.arraycopy(mag, 0, mag_, 0, 3);
-            System.arraycopy(gyr, 0, gyr_, 0, 3);
-            System.arraycopy(imu, 0, imu_, 0, 3);
-
-            String err = lastError;
-            lastError = null;
-            return err;
-        }
-    }
-
     @Override
     public IBinder onBind(Intent intent) {
         return mBinder;
@@ -206,6 +461,11 @@ public class UdpSenderService extends Service implements SensorEventListener {
         UdpSenderService getService() {
             return UdpSenderService.this;
         }
+
+        /** Live telemetry; subscribe() while it is on screen so the live values are published. */
+        Telemetry getTelemetry() {
+            return telemetry;
+        }
     }
 
     @Override
@@ -214,6 +474,7 @@ public class UdpSenderService extends Service implements SensorEventListener {
         instance = this;
         mPowerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
         mWifiManager = (WifiManager) getSystemService(Context.WIFI_SERVICE);
+        mConnectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
         sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
         NotificationChannel serviceChannel = new NotificationChannel(
                 CHANNEL_ID,
@@ -238,7 +499,7 @@ public class UdpSenderService extends Service implements SensorEventListener {
         started = false;
         handler.removeCallbacks(releaseVolUp);
         handler.removeCallbacks(releaseVolDown);
-        buttonState.set(0);
+        releaseButtons();
         if (mediaSession != null) {
             mediaSession.setActive(false);
             mediaSession.release();
@@ -259,9 +520,28 @@ public class UdpSenderService extends Service implements SensorEventListener {
         }
         if (sensorManager != null)
             sensorManager.unregisterListener(this);
+        if (sensorThread != null) {
+            sensorThread.quitSafely();
+            sensorThread = null;
+            sensorHandler = null;
+        }
+        final SensorRecorder r = recorder;
+        if (r != null) {
+            recorder = null;
+            r.close();
+            if (r.dropped() > 0) Log.w("UdpService", r.dropped() + " events not recorded to " + r.file());
+        }
+        if (networkCallback != null) {
+            mConnectivityManager.unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
         running = false;
-        synchronized (this) {
-            notifyAll();
+        final Link l = link;
+        if (l != null) {
+            link = null;
+            l.running = false;
+            final Selector sel = l.selector;
+            if (sel != null) sel.wakeup();
         }
         if (worker != null) {
             try {
@@ -275,6 +555,13 @@ public class UdpSenderService extends Service implements SensorEventListener {
     public void onAccuracyChanged(Sensor sensor, int accuracy) {
     }
 
+    /** A flush requested by wakeWorker() has delivered everything the FIFO held: send it now. */
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        sendRequested.set(true);
+        wake();
+    }
+
     public static final String CHANNEL_ID = "ForegroundServiceChannel";
 
     private Notification buildNotification(String text, int iconRes) {
@@ -347,53 +634,160 @@ public class UdpSenderService extends Service implements SensorEventListener {
         sendRaw = intent.getBooleanExtra("sendRaw", true);
         sendOrientation = intent.getBooleanExtra("sendOrientation", true);
         sampleRate = intent.getIntExtra("sampleRate", SensorManager.SENSOR_DELAY_FASTEST);
+        final int sendRateHz = intent.getIntExtra("sendRate", 0);
+        sendPeriodNanos = sendRateHz > 0 ? 1_000_000_000L / sendRateHz : 0;
+        rateController = null;
+        if (sendRateHz < 0) {
+            rateController = new RateController(25, 500, 250);
+            sendPeriodNanos = 1_000_000_000L / rateController.rateHz();
+        }
+        motionGate = intent.getBooleanExtra("motionGate", false)
+                ? new MotionGate(sendRaw, sendOrientation,
+                        intent.getFloatExtra("gateAcc", 0.1f), intent.getFloatExtra("gateGyr", 0.02f),
+                        intent.getFloatExtra("gateMag", 1f), intent.getFloatExtra("gateOri", 0.005f),
+                        intent.getIntExtra("gateHeartbeatMs", 250) * 1_000_000L)
+                : null;
+        batchSize = Math.max(1, Math.min(MAX_BATCH, intent.getIntExtra("batchSize", 1)));
+        maxBatchLatencyNanos = intent.getIntExtra("batchLatencyMs", 20) * 1_000_000L;
+        sendSequence = rateController != null || intent.getBooleanExtra("sendSequence", false);
+        sensorLatencyUs = intent.getIntExtra("sensorBatchMs", 0) * 1000;
+        final int idleSeconds = intent.getIntExtra("idleSeconds", 0);
+        idleDetector = idleSeconds > 0 ? new IdleDetector(idleSeconds * 1_000_000_000L) : null;
+        if (sensorLatencyUs > 0) {
+            // Hub batching delivers bursts of back-to-back events; pair it with batch frames
+            // so each burst leaves in a few datagrams, and flush the tail of a burst quickly
+            // rather than holding it for the normal batch latency.
+            if (batchSize == 1) batchSize = MAX_BATCH;
+            maxBatchLatencyNanos = Math.min(maxBatchLatencyNanos, 2_000_000L);
+        }
+        final boolean sendCompact = intent.getBooleanExtra("sendCompact", false);
+        sendQuaternion = intent.getBooleanExtra("sendQuaternion", false);
+        buttonEdges = intent.getBooleanExtra("buttonEdges", false);
+        encoder.configure(deviceIndex,
+                (sendRaw ? WireFormat.RAW : 0)
+                        | (sendOrientation ? WireFormat.ORIENTATION : 0)
+                        | (sendQuaternion ? WireFormat.QUATERNION : 0)
+                        | (sendSequence ? WireFormat.SEQUENCE : 0)
+                        | (sendCompact ? WireFormat.COMPACT : 0)
+                        | (buttonEdges ? WireFormat.EDGES : 0)
+                        | WireFormat.BUTTONS,
+                intent.getBooleanExtra("compactDelta", false));
+        switch (sendOrientation ? intent.getIntExtra("orientationSource", ORIENTATION_SYSTEM) : ORIENTATION_SYSTEM) {
+            case ORIENTATION_MADGWICK: fusion = new MadgwickFilter(0.1f); break;
+            case ORIENTATION_MAHONY:   fusion = new MahonyFilter(1f, 0.01f); break;
+            default:                   fusion = null; break;
+        }
 
         // Call startForeground early to satisfy Android's 5-second foreground requirement
         startForegroundWithNotification(ip, port);
 
+        if (intent.getBooleanExtra("record", false)) {
+            recorder = SensorRecorder.start(new File(getFilesDir(), SensorRecorder.DIRECTORY),
+                    System.currentTimeMillis(), SystemClock.elapsedRealtimeNanos());
+        }
+
         debugError = null;
+        jitterNanos = lastJitterSensorTs = lastJitterSentNanos = 0;
+        rtt.reset();
+        nextControlNanos = 0;
+        outageStartNanos = 0;
+        failures = 0;
         running = true;
 
+        network = mConnectivityManager.getActiveNetwork();
+        channelNetwork = null;
+        networkLostNanos = 0;
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network n) {
+                final Network previous = network;
+                network = n;
+                if (previous == null || !n.equals(channelNetwork)) {
+                    networkChanged.set(true);
+                    wake();
+                }
+            }
+
+            @Override
+            public void onLost(Network n) {
+                if (!n.equals(network)) return;
+                network = null;
+                networkLostNanos = SystemClock.elapsedRealtimeNanos();
+            }
+        };
+        mConnectivityManager.registerDefaultNetworkCallback(networkCallback);
+
+        final Link l = new Link();
+        link = l;
         worker = new Thread(() -> {
-            while (running) {
-                try {
-                    socket = new DatagramSocket();
-                    socket.setSoTimeout(1000); // lets the receiver thread wake up to check timeout
-                    final InetAddress targetAddr = InetAddress.getByName(ip);
-                    p.setAddress(targetAddr);
-                    p.setPort(port);
-                    connectionStartTime = System.currentTimeMillis();
-                    lastAckTime = 0;
-                    debugError = null;
-                    updateNotification("→ " + ip + ":" + port, R.drawable.ic_notify);
-
-                    startAckReceiver(targetAddr, ip, port);
-
-                    while (running) {
-                        synchronized (this) {
-                            this.wait();
-                            if (running) Send();
-                        }
-                    }
-                } catch (InterruptedException e) {
-                    break;                      // stop() notified: clean exit
-                } catch (IOException e) {
-                    Log.e("UDP", "Worker error, retrying in 2s", e);
-                    setLastError(e.getMessage());
-                    if (socket != null) { socket.close(); socket = null; }
-                    if (!running) break;
+            // Same class as the sensor thread: a send must not queue behind UI work.
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            try (Selector sel = Selector.open()) {
+                l.selector = sel;
+                targetLabel = ip + ":" + port;
+                // Resolved once and kept across reconnects; dropped only when a connection fails.
+                InetAddress targetAddr = null;
+                while (l.running) {
+                    boolean failed = false;
                     try {
-                        //noinspection BusyWait
-                        Thread.sleep(2000);
-                    } catch (InterruptedException ie) { break; }
-                } finally {
-                    if (socket != null) { socket.close(); socket = null; }
+                        if (targetAddr == null) targetAddr = InetAddress.getByName(ip);
+                        if (!l.running) break;      // stopped during the lookup
+                        networkChanged.set(false);
+                        channelNetwork = network;
+                        final DatagramChannel ch = l.channel = DatagramChannel.open();
+                        ch.connect(new InetSocketAddress(targetAddr, port));
+                        ch.configureBlocking(false);
+                        ch.register(sel, SelectionKey.OP_READ);
+                        encoder.reset();
+                        connectionStartTime = System.currentTimeMillis();
+                        lastAckTime = 0;
+                        nextStatusNanos = statusSent = statusAcked = 0;
+                        debugError = null;
+                        updateNotification("→ " + targetLabel, R.drawable.ic_notify);
+
+                        if (batchSize > 1) sendBatched(l);
+                        else if (sendPeriodNanos > 0) sendPaced(l);
+                        else sendPerEvent(l);
+                    } catch (IOException e) {
+                        Log.e("UDP", "Worker error, reconnecting", e);
+                        telemetry.countSendError();
+                        setLastError(e.getMessage());
+                        failed = true;
+                        targetAddr = null;
+                    } finally {
+                        // Closing deregisters the channel; the next select() drops its key.
+                        closeChannel(l);
+                    }
+                    if (!l.running) break;
+
+                    final long lost = networkLostNanos;
+                    networkLostNanos = 0;
+                    if (outageStartNanos == 0 && (failed || lost != 0)) {
+                        outageStartNanos = lost != 0 ? lost : SystemClock.elapsedRealtimeNanos();
+                    }
+                    if (!failed) continue;          // network changed: rebind right away
+                    if (network == null) {
+                        pause(l, 0);                // nothing to retry on until a network is up
+                    } else {
+                        // The network is up but the host is not reachable: back off.
+                        long delay = Math.min(BACKOFF_MAX_NANOS, BACKOFF_MIN_NANOS << Math.min(failures, 6));
+                        failures++;
+                        pause(l, delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+                    }
                 }
+            } catch (IOException e) {
+                Log.e("UDP", "Selector failed", e);
+                setLastError(e.getMessage());
+            } finally {
+                l.selector = null;
             }
-        });
+        }, "WishIMU-network");
 
         worker.start();
         hasGyro = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE) != null;
+        sensorThread = new HandlerThread("WishIMU-sensors", Process.THREAD_PRIORITY_URGENT_AUDIO);
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
         register_sensors();
 
         wakeLock = wl;
@@ -436,16 +830,15 @@ public class UdpSenderService extends Service implements SensorEventListener {
                     // Limitation: VolumeProvider only receives a direction (+1/-1), never a
                     // KEY_UP event, so a 30 ms synthetic release is scheduled.  Rapid taps
                     // faster than 30 ms still merge; the AccessibilityService path is the
-                    // proper fix.  This path handles the locked-screen / screen-off edge case
-                    // where the AccessibilityService may not receive key events on some ROMs.
+                    // proper fix. With button edges on, the short click survives packet loss.
+                    // This path handles the locked-screen / screen-off edge case where the
+                    // AccessibilityService may not receive key events on some ROMs.
                     if (VolumeKeyService.isEnabled) return; // AccessibilityService handles it
                     if (direction > 0) {  // VOLUME_ADJUST_RAISE = 1  →  Vol Up = bit 0
-                        buttonState.updateAndGet(b -> b | 0x01);
-                        wakeWorker();
+                        setButton(0x01, true);
                         handler.postDelayed(releaseVolUp, 30);
                     } else if (direction < 0) {  // VOLUME_ADJUST_LOWER = -1  →  Vol Down = bit 1
-                        buttonState.updateAndGet(b -> b | 0x02);
-                        wakeWorker();
+                        setButton(0x02, true);
                         handler.postDelayed(releaseVolDown, 30);
                     }
                 }
@@ -474,79 +867,377 @@ public class UdpSenderService extends Service implements SensorEventListener {
         mediaSession.setCallback(new MediaSession.Callback() {});
     }
 
+    private static void closeChannel(Link l) {
+        if (l.channel != null) {
+            try { l.channel.close(); } catch (IOException ignored) {}
+            l.channel = null;
+        }
+    }
+
     /**
-     * Starts a daemon thread that listens for 1-byte ack packets sent back by ps3pie after
-     * each received IMU packet. On each ack, resets the connection-lost timer and clears any
-     * error. On SocketTimeoutException (every 1 s), checks whether ACK_TIMEOUT_MS has elapsed
-     * without an ack and sets a "No response from host" error if so.
+     * Wakes the current worker out of await(). Any thread; like unpark(), a wake while the
+     * worker is busy makes its next await() return at once, so none is lost.
+     */
+    private void wake() {
+        final Link l = link;
+        if (l == null) return;
+        final Selector sel = l.selector;
+        if (sel != null) sel.wakeup();
+    }
+
+    /** Worker: whether the send loop should go on, rather than stop or reconnect. */
+    private boolean keepSending(Link l) {
+        return l.running && !networkChanged.get();
+    }
+
+    /**
+     * Worker, between connections: waits {@code nanos}, or until a network comes up when 0.
+     * Returns early on stop() or a network change.
+     */
+    private void pause(Link l, long nanos) throws IOException {
+        final Selector sel = l.selector;
+        final long until = System.nanoTime() + nanos;
+        while (l.running && !networkChanged.get()) {
+            long left = until - System.nanoTime();
+            if (nanos == 0) sel.select();
+            else if (left > 0) sel.select(Math.max(1, left / 1_000_000));
+            else break;
+        }
+    }
+
+    /**
+     * Worker: waits for wake(), an ack or {@code nanos} to pass, whichever comes first (0 waits
+     * without a deadline), then reads whatever acks have arrived and sends a pending button
+     * edge or edge repeat; a repeat that falls due cuts the wait short, and so does the ack
+     * timeout, which is checked on every return so it is raised even while nothing is sent.
+     * Selector timeouts are in whole ms, so a wait shorter than that is parked out and the
+     * selector only polled.
+     */
+    private void await(Link l, long nanos) throws IOException {
+        if (repeatsLeft > 0) {
+            long untilRepeat = Math.max(1, repeatAtNanos - System.nanoTime());
+            if (nanos <= 0 || untilRepeat < nanos) nanos = untilRepeat;
+        }
+        long untilAckTimeout = ackTimeoutNanos();
+        if (untilAckTimeout > 0 && (nanos <= 0 || untilAckTimeout < nanos)) nanos = untilAckTimeout;
+        final Selector sel = l.selector;
+        if (nanos <= 0) sel.select();
+        else if (nanos >= 1_000_000) sel.select(nanos / 1_000_000);
+        else {
+            LockSupport.parkNanos(this, nanos);
+            sel.selectNow();
+        }
+        sel.selectedKeys().clear();
+        readAcks(l.channel);
+        checkAckTimeout();
+        if (buttonsChanged.getAndSet(false)) {
+            sendButtons(l.channel);
+            if (buttonEdges) {
+                repeatsLeft = EDGE_REPEATS;
+                repeatGapNanos = EDGE_REPEAT_GAP_NANOS;
+                repeatAtNanos = System.nanoTime() + repeatGapNanos;
+            }
+        } else if (repeatsLeft > 0 && System.nanoTime() - repeatAtNanos >= 0) {
+            // Same state and counters again: the host drops it unless the original was lost.
+            sendButtons(l.channel);
+            repeatsLeft--;
+            repeatGapNanos *= 2;
+            repeatAtNanos += repeatGapNanos;
+        }
+    }
+
+    /**
+     * Worker: drains the 1-byte ack packets ps3pie sends back for each received IMU packet. Each
+     * ack resets the connection-lost timer and clears any error. When the frame carried the
+     * sequence trailer, ps3pie appends the uint32 sequence number to the ack; those feed the
+     * RTT tracker, and the notification shows RTT and loss, refreshed once a second. The
+     * channel is connected, so only datagrams from the target host are delivered.
      * Compatible with the original FreePIE app which sends no acks; in that case the error
-     * appears after 5 s but data delivery is unaffected.
-     */
-    private void startAckReceiver(InetAddress targetAddr, String ip, int port) {
-        Thread receiver = new Thread(() -> {
-            byte[] buf = new byte[4];
-            DatagramPacket ackPkt = new DatagramPacket(buf, buf.length);
-            while (running) {
-                try {
-                    ackPkt.setLength(buf.length);
-                    socket.receive(ackPkt);
-                    if (targetAddr.equals(ackPkt.getAddress())) {
-                        lastAckTime = System.currentTimeMillis();
-                        if (debugError != null) {
-                            debugError = null;
-                            updateNotification("→ " + ip + ":" + port, R.drawable.ic_notify);
-                        }
-                    }
-                } catch (SocketTimeoutException ignored) {
-                    long now = System.currentTimeMillis();
-                    boolean noAckYet = lastAckTime == 0 && now - connectionStartTime > ACK_TIMEOUT_MS;
-                    boolean ackLost  = lastAckTime > 0  && now - lastAckTime       > ACK_TIMEOUT_MS;
-                    if ((noAckYet || ackLost) && debugError == null) {
-                        setLastError("No response from host");
-                    }
-                } catch (IOException e) {
-                    break; // socket closed or real error — exit cleanly
+     * appears after 5 s (see checkAckTimeout) but data delivery is unaffected.
+     */
+    private void readAcks(DatagramChannel channel) throws IOException {
+        final ByteBuffer ack = ackBuf;
+        while (true) {
+            ack.clear();
+            final int n;
+            try {
+                n = channel.read(ack);
+            } catch (PortUnreachableException ignored) {
+                return;     // ICMP from the host: nothing is listening yet. Keep waiting for acks.
+            }
+            if (n <= 0) return;
+            long now = SystemClock.elapsedRealtimeNanos();
+            lastAckTime = System.currentTimeMillis();
+            long seq = WireFormat.ackSequence(ack, n);
+            if (seq >= 0) rtt.onAck((int) seq, now);
+            if (outageStartNanos != 0) {
+                telemetry.recordRecovery(now - outageStartNanos);
+                outageStartNanos = 0;
+            }
+            if (debugError != null) {
+                debugError = null;
+                updateNotification("→ " + targetLabel, R.drawable.ic_notify);
+            } else if (sendSequence && now - nextStatusNanos >= 0 && rtt.acked() > 0) {
+                // Once a second: RTT and loss over the last second.
+                long sent = rtt.sent(), acked = rtt.acked();
+                float loss = sent > statusSent
+                        ? Math.max(0f, 1f - (float) (acked - statusAcked) / (sent - statusSent)) : 0f;
+                updateNotification(String.format(Locale.ROOT, "→ %s · RTT %.1f ms · %.1f%% loss",
+                        targetLabel, rtt.smoothedNanos() / 1e6, loss * 100f), R.drawable.ic_notify);
+                statusSent = sent;
+                statusAcked = acked;
+                nextStatusNanos = now + 1_000_000_000L;
+            }
+        }
+    }
+
+    /**
+     * Worker: nanoseconds until checkAckTimeout() raises its error if no ack arrives, at
+     * least 1; 0 when the error, or another one, is already showing.
+     */
+    private long ackTimeoutNanos() {
+        if (debugError != null) return 0;
+        long since = lastAckTime != 0 ? lastAckTime : connectionStartTime;
+        return Math.max(1, since + ACK_TIMEOUT_MS + 1 - System.currentTimeMillis()) * 1_000_000L;
+    }
+
+    /**
+     * Called by the worker after each send and each wait; raises "No response from host"
+     * once acks stop.
+     */
+    private void checkAckTimeout() {
+        long now = System.currentTimeMillis();
+        boolean noAckYet = lastAckTime == 0 && now - connectionStartTime > ACK_TIMEOUT_MS;
+        boolean ackLost  = lastAckTime > 0  && now - lastAckTime       > ACK_TIMEOUT_MS;
+        if ((noAckYet || ackLost) && debugError == null) {
+            setLastError("No response from host");
+        }
+    }
+
+    /**
+     * Fills orientation[] for {@code s}: w, x, y, z in quaternion mode, otherwise yaw, pitch,
+     * roll as SensorManager.getOrientation returns them. Runs on the worker once per outgoing
+     * sample. Without a gyroscope or a fusion source the rotation is built from accelerometer
+     * + magnetometer; if that fails (free fall) the previous orientation is kept.
+     */
+    private void computeOrientation(SensorSample s) {
+        if (hasGyro || fusion != null) {
+            if (sendQuaternion) {
+                SensorManager.getQuaternionFromVector(orientation, s.rot);
+            } else {
+                SensorManager.getRotationMatrixFromVector(rotationMatrix, s.rot);
+                SensorManager.getOrientation(rotationMatrix, orientation);
+            }
+        } else if (SensorManager.getRotationMatrix(R_, I, s.acc, s.mag)) {
+            if (sendQuaternion) {
+                RotationMath.quaternionFromMatrix(R_, orientation);
+                // Same hemisphere as the rotation-vector path (w ≥ 0), so the sign of the
+                // quaternion does not flip when the sensor path changes.
+                if (orientation[0] < 0) {
+                    for (int i = 0; i < 4; i++) orientation[i] = -orientation[i];
                 }
+            } else {
+                SensorManager.getOrientation(R_, orientation);
             }
-        });
-        receiver.setDaemon(true);
-        receiver.start();
+        }
     }
 
-    private byte getFlagByte(boolean raw, boolean orientation) {
-        return (byte) ((raw ? SEND_RAW : SEND_NONE) |
-                (orientation ? SEND_ORIENTATION : SEND_NONE) |
-                SEND_BUTTONS);
+    private void Send(DatagramChannel channel) throws IOException {
+        sendFrame(channel, single, 1, false);
     }
 
-    private int put_float(float f, int pos, byte[] buf) {
-        int tmp = Float.floatToIntBits(f);
-        buf[pos++] = (byte) (tmp); // low byte (tmp >> 0 is redundant)
-        buf[pos++] = (byte) (tmp >> 8);
-        buf[pos++] = (byte) (tmp >> 16);
-        buf[pos++] = (byte) (tmp >> 24);
-        return pos;
+    private void SendBatch(DatagramChannel channel, int count) throws IOException {
+        sendFrame(channel, batch, count, true);
     }
 
-    private void Send() throws IOException {
-        int pos = 0;
-        buf[pos++] = deviceIndex;
-        buf[pos++] = getFlagByte(sendRaw, sendOrientation);
+    /**
+     * Encodes src[0..count) as one frame and sends it. The orientation of each sample is
+     * computed here; the layout is the encoder's business (see WireFormat). In motion-gated
+     * mode a frame in which no sample left the dead-band is dropped here, before encoding, so
+     * it takes no sequence number and no compact keyframe slot.
+     */
+    private void sendFrame(DatagramChannel channel, SensorSample[] src, int count, boolean batched)
+            throws IOException {
+        final long wakeNanos = SystemClock.elapsedRealtimeNanos();
+        final MotionGate gate = motionGate;
+        boolean moved = false;
+        for (int i = 0; i < count; i++) {
+            SensorSample s = src[i];
+            if (sendOrientation) computeOrientation(s);
+            encoder.setSample(i, s.acc, s.gyr, s.mag, orientation);
+            if (gate != null && !moved) moved = gate.moved(s, orientation);
+        }
+        final int buttons = buttonState.get();
+        if (gate != null) {
+            if (!gate.admit(moved, buttons, wakeNanos)) {
+                telemetry.countSuppressed();
+                return;
+            }
+            gate.onSent(src[count - 1], orientation, buttons, wakeNanos);
+        }
+        buf.clear();
+        encoder.encode(buf, count, batched, buttons, src[count - 1].timestamp);
+        if (sendSequence) rtt.onSend(encoder.lastSequence(), SystemClock.elapsedRealtimeNanos());
+
+        write(channel);
+        recordTiming(src[count - 1], wakeNanos);
+        if (telemetry.isSubscribed()) publishTelemetry(src[count - 1]);
+    }
+
+    /**
+     * Sends the current button state alone. Nothing is drained, fused or encoded, so a click
+     * goes out as soon as the worker wakes, whatever the sensor rate, send rate or batching.
+     * The motion gate learns the new state, so it does not hold back a sensor frame for it.
+     */
+    private void sendButtons(DatagramChannel channel) throws IOException {
+        final int buttons = buttonState.get();
+        final long now = SystemClock.elapsedRealtimeNanos();
+        buf.clear();
+        encoder.encodeButtons(buf, buttons, now);
+        if (sendSequence) rtt.onSend(encoder.lastSequence(), now);
+        write(channel);
+        final MotionGate gate = motionGate;
+        if (gate != null) gate.onButtonsSent(buttons);
+    }
+
+    /**
+     * Publishes the last encoded sample to the telemetry. Orientation goes out as yaw/pitch/roll;
+     * in quaternion mode this applies the same formulas as SensorManager.getOrientation to the
+     * rotation matrix the quaternion stands for. Only runs while the debug panel is open.
+     */
+    private void publishTelemetry(SensorSample s) {
+        final float[] o = orientation, ypr = telemetryYpr;
+        if (!sendOrientation) {
+            ypr[0] = ypr[1] = ypr[2] = 0f;
+        } else if (!sendQuaternion) {
+            System.arraycopy(o, 0, ypr, 0, 3);
+        } else {
+            float w = o[0], x = o[1], y = o[2], z = o[3];
+            ypr[0] = (float) Math.atan2(2f * (x * y - w * z), 1f - 2f * (x * x + z * z));
+            ypr[1] = (float) Math.asin(Math.max(-1f, Math.min(1f, -2f * (y * z + w * x))));
+            ypr[2] = (float) Math.atan2(-2f * (x * z - w * y), 1f - 2f * (x * x + y * y));
+        }
+        telemetry.publish(s, ypr, jitterNanos);
+    }
+
+    private void write(DatagramChannel channel) throws IOException {
+        buf.flip();
+        try {
+            // Non-blocking: with the socket buffer full the frame is dropped rather than
+            // delaying the fresher ones behind it.
+            if (channel.write(buf) > 0) {
+                telemetry.countPacket();
+                failures = 0;
+            } else {
+                telemetry.countSendError();
+            }
+        } catch (PortUnreachableException ignored) {
+            // A connected UDP socket reports ICMP port-unreachable from an earlier datagram on
+            // the next write. The host script is just not running yet; keep streaming.
+            telemetry.countSendError();
+        }
+        checkAckTimeout();
+    }
 
-        if (sendRaw) {
-            for (int i = 0; i < 3; i++) pos = put_float(acc[i], pos, buf);
-            for (int i = 0; i < 3; i++) pos = put_float(gyr[i], pos, buf);
-            for (int i = 0; i < 3; i++) pos = put_float(mag[i], pos, buf);
+    /**
+     * Records the stage latencies and updates jitterNanos after a send whose newest sample is
+     * {@code newest}, started at {@code wakeNanos}. A sample that was already timed is
+     * skipped: it carries no new timing information.
+     */
+    private void recordTiming(SensorSample newest, long wakeNanos) {
+        final long sensorTs = newest.timestamp;
+        if (sensorTs == lastJitterSensorTs) return;
+        long now = SystemClock.elapsedRealtimeNanos();
+        telemetry.recordLatency(Telemetry.STAGE_HANDOFF, wakeNanos - newest.receivedNanos);
+        telemetry.recordLatency(Telemetry.STAGE_SEND, now - wakeNanos);
+        telemetry.recordLatency(Telemetry.STAGE_TOTAL, now - sensorTs);
+        if (lastJitterSensorTs != 0) {
+            long d = (now - lastJitterSentNanos) - (sensorTs - lastJitterSensorTs);
+            jitterNanos += (Math.abs(d) - jitterNanos) / 16;
+        }
+        lastJitterSensorTs = sensorTs;
+        lastJitterSentNanos = now;
+    }
+
+    /**
+     * Sends one frame per published sample; button edges go out from await(). Returns on
+     * stop() or a network change.
+     */
+    private void sendPerEvent(Link l) throws IOException {
+        while (keepSending(l)) {
+            await(l, 0);
+            if (!keepSending(l)) break;   // stop() or a network change woke us: clean exit
+            // Drain outside any lock: the sensor thread keeps publishing into the
+            // ring while the send below is blocked on the radio.
+            if (samples.drainLatest(outgoing) > 0) Send(l.channel);
         }
+    }
 
-        if (sendOrientation) {
-            for (int i = 0; i < 3; i++) pos = put_float(imu[i], pos, buf);
+    /**
+     * Sends the latest sample once every sendPeriodNanos. The sensor thread does not wake
+     * the worker in this mode; wakeWorker() cuts a wait short so a button edge goes out in a
+     * button-only frame, and the FIFO flush it requests sends the newest sample early. Ticks
+     * missed while a send was blocked are skipped, not replayed back-to-back.
+     */
+    private void sendPaced(Link l) throws IOException {
+        long nextTick = System.nanoTime() + sendPeriodNanos;
+        while (keepSending(l)) {
+            long wait = nextTick - System.nanoTime();
+            if (wait > 0) {
+                await(l, wait);
+                if (!keepSending(l)) break;
+                if (sendRequested.getAndSet(false) && samples.drainLatest(outgoing) > 0) Send(l.channel);
+                continue;
+            }
+            long now = System.nanoTime();
+            if (rateController != null) adaptRate(now);
+            nextTick += sendPeriodNanos;
+            if (nextTick - now < 0) nextTick = now + sendPeriodNanos;
+            if (samples.drainLatest(outgoing) > 0) Send(l.channel);
         }
+    }
 
-        buf[pos++] = (byte) buttonState.get();
+    /** Adaptive mode: closes the control interval ending at {@code now}, if it is over. */
+    private void adaptRate(long now) {
+        if (nextControlNanos != 0 && now - nextControlNanos < 0) return;
+        long sent = rtt.sent(), acked = rtt.acked();
+        if (nextControlNanos != 0) {
+            int hz = rateController.update(sent - controlSent, acked - controlAcked,
+                    rtt.smoothedNanos(), rtt.minNanos());
+            sendPeriodNanos = 1_000_000_000L / hz;
+        }
+        controlSent = sent;
+        controlAcked = acked;
+        nextControlNanos = now + CONTROL_INTERVAL_NANOS;
+    }
 
-        p.setData(buf, 0, pos);
-        if (socket != null) socket.send(p);
+    /**
+     * Leaves samples in the ring until batchSize are pending or the oldest has waited
+     * maxBatchLatencyNanos, then sends them as one BATCH frame. The sensor thread only
+     * wakes the worker when the ring turns non-empty (to arm the latency deadline) and when
+     * a full batch is ready, so the worker runs once per datagram rather than once per event.
+     * A completed FIFO flush sends whatever is pending. Button edges never wait for a batch;
+     * they go out from await() in a frame of their own.
+     */
+    private void sendBatched(Link l) throws IOException {
+        while (keepSending(l)) {
+            int pending = samples.size();
+            if (pending == 0) {
+                sendRequested.set(false);
+                await(l, 0);
+                continue;
+            }
+            long wait = samples.oldestReceivedNanos() + maxBatchLatencyNanos
+                    - SystemClock.elapsedRealtimeNanos();
+            if (pending < batchSize && wait > 0 && !sendRequested.get()) {
+                await(l, wait);
+                continue;
+            }
+            sendRequested.set(false);
+            int n = samples.drainTo(batch, batchSize);
+            outgoing.copyFrom(batch[n - 1]);
+            SendBatch(l.channel, n);
+        }
     }
 
     @SuppressWarnings("unused")
@@ -554,41 +1245,68 @@ public class UdpSenderService extends Service implements SensorEventListener {
         return running;
     }
 
+    /**
+     * Runs on the sensor delivery thread. Never blocks: updates the local sample, publishes a
+     * copy to the ring and, unless the sender is paced or batching, wakes the worker.
+     * The worker may be blocked in a send at this point; that no longer delays sensor delivery.
+     */
     @Override
     public void onSensorChanged(SensorEvent sensorEvent) {
-        synchronized (this) {
-            switch (sensorEvent.sensor.getType()) {
-                case Sensor.TYPE_ACCELEROMETER:
-                    System.arraycopy(sensorEvent.values, 0, acc, 0, 3);
-                    break;
-                case Sensor.TYPE_MAGNETIC_FIELD:
-                    System.arraycopy(sensorEvent.values, 0, mag, 0, 3);
-                    break;
-                case Sensor.TYPE_GYROSCOPE:
-                    System.arraycopy(sensorEvent.values, 0, gyr, 0, 3);
-                    break;
-                case Sensor.TYPE_ROTATION_VECTOR:
-                    System.arraycopy(sensorEvent.values, 0, rotationVector, 0, 3);
-                    break;
-            }
-
-            if (sendOrientation) {
-                if (!hasGyro) {
-                    if (SensorManager.getRotationMatrix(R_, I, acc, mag)) {
-                        SensorManager.getOrientation(R_, imu);
-                    }
-                } else {
-                    SensorManager.getRotationMatrixFromVector(rotationMatrix, rotationVector);
-                    SensorManager.getOrientation(rotationMatrix, imu);
-                }
-            }
+        final SensorSample s = current;
+        final int type = sensorEvent.sensor.getType();
+        s.timestamp = sensorEvent.timestamp;
+        s.receivedNanos = SystemClock.elapsedRealtimeNanos();
+        telemetry.recordLatency(Telemetry.STAGE_DELIVERY, s.receivedNanos - s.timestamp);
+        final SensorRecorder r = recorder;
+        if (r != null) r.record(type, sensorEvent.accuracy, sensorEvent.timestamp, sensorEvent.values);
+        switch (type) {
+            case Sensor.TYPE_ACCELEROMETER:
+                System.arraycopy(sensorEvent.values, 0, s.acc, 0, 3);
+                telemetry.countEvent(Telemetry.SENSOR_ACC);
+                break;
+            case Sensor.TYPE_MAGNETIC_FIELD:
+                System.arraycopy(sensorEvent.values, 0, s.mag, 0, 3);
+                telemetry.countEvent(Telemetry.SENSOR_MAG);
+                break;
+            case Sensor.TYPE_GYROSCOPE:
+                System.arraycopy(sensorEvent.values, 0, s.gyr, 0, 3);
+                telemetry.countEvent(Telemetry.SENSOR_GYR);
+                break;
+            case Sensor.TYPE_ROTATION_VECTOR:
+                System.arraycopy(sensorEvent.values, 0, s.rot, 0, 3);
+                telemetry.countEvent(Telemetry.SENSOR_ROT);
+                break;
+        }
 
-            System.arraycopy(acc, 0, debugAcc, 0, 3);
-            System.arraycopy(gyr, 0, debugGyr, 0, 3);
-            System.arraycopy(mag, 0, debugMag, 0, 3);
-            System.arraycopy(imu, 0, debugImu, 0, 3);
+        final IdleDetector detector = idleDetector;
+        if (detector != null) {
+            final boolean moved = type == Sensor.TYPE_ACCELEROMETER
+                    ? detector.accelerometer(s.acc, sensorEvent.timestamp)
+                    : type == Sensor.TYPE_GYROSCOPE && detector.gyroscope(s.gyr, sensorEvent.timestamp);
+            // Back to full rate on the reading that moved; it still goes out below, so the
+            // host hears of the motion before the other sensors have restarted.
+            if (idle && moved) register_sensors();
+            else if (!idle && detector.stillAt(sensorEvent.timestamp)) enterIdle();
+        }
+        if (idleAccelerometer && !idle && type == Sensor.TYPE_ACCELEROMETER) return;
+
+        if (fusion != null && type == fusionSensorType) {
+            // Clamp the step so a gap (re-registration on screen-off) cannot spin the estimate.
+            float dt = fusionLastTimestamp == 0 ? 0f
+                    : Math.min(0.1f, (sensorEvent.timestamp - fusionLastTimestamp) * 1e-9f);
+            fusionLastTimestamp = sensorEvent.timestamp;
+            fusion.update(s.gyr, s.acc, s.mag, dt);
+            fusion.getRotationVector(s.rot);
+        }
 
-            notifyAll();
+        if (batchSize > 1) {
+            if (type != clockSensorType) return;
+            samples.offer(s);
+            int pending = samples.size();
+            if (pending == 1 || pending >= batchSize) wake();
+            return;
         }
+        samples.offer(s);
+        if (sendPeriodNanos == 0) wake();
     }
-}
\ No newline at end of file
+}
@@ -74,12 +74,10 @@ class VolumeKeyService : AccessibilityService() {
 
         when (event.action) {
             KeyEvent.ACTION_DOWN -> {
-                UdpSenderService.buttonState.updateAndGet { it or bit }
-                UdpSenderService.wakeWorker()   // send press packet immediately
+                UdpSenderService.setButton(bit, true)    // sends the press packet immediately
             }
             KeyEvent.ACTION_UP -> {
-                UdpSenderService.buttonState.updateAndGet { it and bit.inv() }
-                UdpSenderService.wakeWorker()   // send release packet immediately
+                UdpSenderService.setButton(bit, false)   // sends the release packet immediately
             }
         }
         return true  // consume — do not change system volume
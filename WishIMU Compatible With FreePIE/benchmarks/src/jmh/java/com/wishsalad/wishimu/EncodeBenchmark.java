@@ -0,0 +1,166 @@
+package com.wishsalad.wishimu;
+
+import com.wishsalad.wishimu.protocol.FrameEncoder;
+import com.wishsalad.wishimu.protocol.WireFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding one frame of {@code count} full samples (9 raw + 4 quaternion values).
+ *
+ * <ul>
+ *   <li>putFloat: the original put_float() shifting each float into a byte[] by hand.</li>
+ *   <li>heapBuffer / directBuffer: ByteBuffer.putFloat, little-endian. The sender encodes
+ *       into a direct buffer so channel.write() needs no copy.</li>
+ *   <li>varHandle: a byte[] view VarHandle. JVM only; Android has it from API 33.</li>
+ *   <li>encoderFloat / encoderCompact / encoderDelta: the protocol module's FrameEncoder as
+ *       the sender uses it, including staging and, for compact, quantizing.</li>
+ * </ul>
+ * Returning the position keeps the JIT from dropping the writes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EncodeBenchmark {
+
+    private static final VarHandle FLOAT_LE =
+            MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final int FLAGS = WireFormat.RAW | WireFormat.ORIENTATION
+            | WireFormat.QUATERNION | WireFormat.BUTTONS | WireFormat.SEQUENCE;
+
+    @Param({"1", "16"})
+    public int count;
+
+    private final float[][] acc = new float[WireFormat.MAX_BATCH][3];
+    private final float[][] gyr = new float[WireFormat.MAX_BATCH][3];
+    private final float[][] mag = new float[WireFormat.MAX_BATCH][3];
+    private final float[][] quat = new float[WireFormat.MAX_BATCH][4];
+
+    private final byte[] bytes = new byte[WireFormat.MAX_FRAME_BYTES];
+    private final ByteBuffer heap = ByteBuffer.allocate(WireFormat.MAX_FRAME_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer direct = ByteBuffer.allocateDirect(WireFormat.MAX_FRAME_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final FrameEncoder floatEncoder = new FrameEncoder();
+    private final FrameEncoder compactEncoder = new FrameEncoder();
+    private final FrameEncoder deltaEncoder = new FrameEncoder();
+    private long timestamp;
+
+    @Setup
+    public void setup() {
+        // A slow hand motion: the whole batch stays within int8 of its last sample, so
+        // encoderDelta measures delta frames rather than falling back to keyframes.
+        for (int i = 0; i < WireFormat.MAX_BATCH; i++) {
+            float t = i * 0.005f;
+            acc[i][0] = 0.3f + t; acc[i][1] = -0.1f; acc[i][2] = 9.78f - t;
+            gyr[i][0] = 0.02f; gyr[i][1] = -0.4f + t; gyr[i][2] = 0.1f;
+            mag[i][0] = 21.5f; mag[i][1] = -3.2f + t; mag[i][2] = -40.1f;
+            double half = (0.2 + t / 20) / 2;
+            quat[i][0] = (float) Math.cos(half); quat[i][3] = (float) Math.sin(half);
+        }
+        floatEncoder.configure(0, FLAGS, false);
+        compactEncoder.configure(0, FLAGS | WireFormat.COMPACT, false);
+        deltaEncoder.configure(0, FLAGS | WireFormat.COMPACT, true);
+    }
+
+    @Benchmark
+    public int putFloat() {
+        final byte[] b = bytes;
+        int pos = 0;
+        b[pos++] = 0;
+        b[pos++] = (byte) (FLAGS | (count > 1 ? WireFormat.BATCH : 0));
+        if (count > 1) b[pos++] = (byte) count;
+        for (int i = 0; i < count; i++) {
+            for (int k = 0; k < 3; k++) pos = putFloat(acc[i][k], pos, b);
+            for (int k = 0; k < 3; k++) pos = putFloat(gyr[i][k], pos, b);
+            for (int k = 0; k < 3; k++) pos = putFloat(mag[i][k], pos, b);
+            for (int k = 0; k < 4; k++) pos = putFloat(quat[i][k], pos, b);
+        }
+        b[pos++] = 0;
+        return pos;
+    }
+
+    @Benchmark
+    public int heapBuffer() {
+        return encode(heap);
+    }
+
+    @Benchmark
+    public int directBuffer() {
+        return encode(direct);
+    }
+
+    @Benchmark
+    public int varHandle() {
+        final byte[] b = bytes;
+        int pos = 0;
+        b[pos++] = 0;
+        b[pos++] = (byte) (FLAGS | (count > 1 ? WireFormat.BATCH : 0));
+        if (count > 1) b[pos++] = (byte) count;
+        for (int i = 0; i < count; i++) {
+            for (int k = 0; k < 3; k++, pos += 4) FLOAT_LE.set(b, pos, acc[i][k]);
+            for (int k = 0; k < 3; k++, pos += 4) FLOAT_LE.set(b, pos, gyr[i][k]);
+            for (int k = 0; k < 3; k++, pos += 4) FLOAT_LE.set(b, pos, mag[i][k]);
+            for (int k = 0; k < 4; k++, pos += 4) FLOAT_LE.set(b, pos, quat[i][k]);
+        }
+        b[pos++] = 0;
+        return pos;
+    }
+
+    @Benchmark
+    public int encoderFloat() {
+        return encode(floatEncoder);
+    }
+
+    @Benchmark
+    public int encoderCompact() {
+        return encode(compactEncoder);
+    }
+
+    @Benchmark
+    public int encoderDelta() {
+        return encode(deltaEncoder);
+    }
+
+    private int encode(ByteBuffer b) {
+        b.clear();
+        b.put((byte) 0);
+        b.put((byte) (FLAGS | (count > 1 ? WireFormat.BATCH : 0)));
+        if (count > 1) b.put((byte) count);
+        for (int i = 0; i < count; i++) {
+            for (int k = 0; k < 3; k++) b.putFloat(acc[i][k]);
+            for (int k = 0; k < 3; k++) b.putFloat(gyr[i][k]);
+            for (int k = 0; k < 3; k++) b.putFloat(mag[i][k]);
+            for (int k = 0; k < 4; k++) b.putFloat(quat[i][k]);
+        }
+        b.put((byte) 0);
+        return b.position();
+    }
+
+    private int encode(FrameEncoder e) {
+        for (int i = 0; i < count; i++) e.setSample(i, acc[i], gyr[i], mag[i], quat[i]);
+        direct.clear();
+        e.encode(direct, count, count > 1, 0, timestamp++);
+        return direct.position();
+    }
+
+    private static int putFloat(float f, int pos, byte[] buf) {
+        int tmp = Float.floatToIntBits(f);
+        buf[pos++] = (byte) (tmp);
+        buf[pos++] = (byte) (tmp >> 8);
+        buf[pos++] = (byte) (tmp >> 16);
+        buf[pos++] = (byte) (tmp >> 24);
+        return pos;
+    }
+}
@@ -0,0 +1,123 @@
+package com.wishsalad.wishimu;
+
+import com.wishsalad.wishimu.protocol.SampleRing;
+import com.wishsalad.wishimu.protocol.SensorSample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sensor thread → sender thread handoff, one producer and one consumer thread per group,
+ * both running flat out so the shared state is as contended as it gets.
+ *
+ * <ul>
+ *   <li>monitor: the original handoff, sample copied in and out under synchronized(this)
+ *       with notifyAll() on publish. The sender's wait() is left out (a benchmark thread must
+ *       not block), so this is a lower bound of what the monitor cost.</li>
+ *   <li>ring: SampleRing as the service uses it, offer() against drainLatest().</li>
+ *   <li>tripleBuffer: a lock-free latest-value exchange of three preallocated samples with
+ *       a single getAndSet per side; no backlog, so it cannot serve batch mode.</li>
+ * </ul>
+ * Score per method is the time of one offer or one poll.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HandoffBenchmark {
+
+    private final SensorSample produced = new SensorSample();
+
+    // --- monitor ---
+    private final SensorSample shared = new SensorSample();
+    private boolean pending;
+
+    // --- ring ---
+    private final SampleRing ring = new SampleRing(64);
+
+    // --- triple buffer ---
+    private static final int FRESH = 4;
+    private final SensorSample[] buffers = { new SensorSample(), new SensorSample(), new SensorSample() };
+    /** Index of the middle buffer, plus FRESH when the producer swapped it in since the last poll. */
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;                        // producer-owned
+    private int front = 2;                       // consumer-owned
+
+    @State(Scope.Thread)
+    public static class Consumer {
+        final SensorSample dst = new SensorSample();
+    }
+
+    private void fill(SensorSample s) {
+        s.timestamp++;
+        s.acc[0] = s.timestamp;
+        s.receivedNanos = s.timestamp;
+    }
+
+    @Benchmark
+    @Group("monitor")
+    @GroupThreads(1)
+    public void monitorOffer() {
+        fill(produced);
+        synchronized (this) {
+            shared.copyFrom(produced);
+            pending = true;
+            notifyAll();
+        }
+    }
+
+    @Benchmark
+    @Group("monitor")
+    @GroupThreads(1)
+    public int monitorPoll(Consumer c) {
+        synchronized (this) {
+            if (!pending) return 0;
+            c.dst.copyFrom(shared);
+            pending = false;
+            return 1;
+        }
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public boolean ringOffer() {
+        fill(produced);
+        return ring.offer(produced);
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public int ringPoll(Consumer c) {
+        return ring.drainLatest(c.dst);
+    }
+
+    @Benchmark
+    @Group("tripleBuffer")
+    @GroupThreads(1)
+    public void tripleBufferOffer() {
+        SensorSample s = buffers[back];
+        fill(produced);
+        s.copyFrom(produced);
+        back = middle.getAndSet(back | FRESH) & 3;
+    }
+
+    @Benchmark
+    @Group("tripleBuffer")
+    @GroupThreads(1)
+    public int tripleBufferPoll(Consumer c) {
+        if ((middle.get() & FRESH) == 0) return 0;
+        front = middle.getAndSet(front) & 3;
+        c.dst.copyFrom(buffers[front]);
+        return 1;
+    }
+}
@@ -0,0 +1,93 @@
+package com.wishsalad.wishimu;
+
+import com.wishsalad.wishimu.protocol.MadgwickFilter;
+import com.wishsalad.wishimu.protocol.MahonyFilter;
+import com.wishsalad.wishimu.protocol.RotationMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sample orientation math on the worker, and the fusion step on the sensor thread.
+ *
+ * The SensorManager helpers are not available off-device, so eulerViaMatrix and quaternion
+ * run the protocol module's RotationMath, which has the same arithmetic as AOSP's
+ * getRotationMatrixFromVector + getOrientation and getQuaternionFromVector. madgwick and
+ * mahony run the app's filters.
+ * Inputs cycle through a table of rotations so nothing is constant-folded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrientationBenchmark {
+
+    private static final int INPUTS = 64;
+
+    private final float[][] rot = new float[INPUTS][3];
+    private final float[][] acc = new float[INPUTS][3];
+    private final float[][] gyr = new float[INPUTS][3];
+    private final float[][] mag = new float[INPUTS][3];
+    private final float[] matrix = new float[9];
+    private final float[] out = new float[4];
+    private final MadgwickFilter madgwick = new MadgwickFilter(0.1f);
+    private final MahonyFilter mahony = new MahonyFilter(1f, 0.01f);
+    private int next;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < INPUTS; i++) {
+            // Yaw sweep with a little tilt; x, y, z of the unit quaternion as the sensor reports.
+            double yaw = 2 * Math.PI * i / INPUTS, tilt = 0.2 * Math.sin(yaw);
+            double cy = Math.cos(yaw / 2), sy = Math.sin(yaw / 2), ct = Math.cos(tilt / 2), st = Math.sin(tilt / 2);
+            rot[i][0] = (float) (st * cy);
+            rot[i][1] = (float) (st * sy);
+            rot[i][2] = (float) (ct * sy);
+            acc[i][0] = (float) (9.81 * Math.sin(tilt)); acc[i][2] = (float) (9.81 * Math.cos(tilt));
+            gyr[i][0] = 0.05f; gyr[i][2] = (float) (2 * Math.PI / INPUTS * 200);
+            mag[i][0] = (float) (22 * Math.sin(yaw)); mag[i][1] = (float) (22 * Math.cos(yaw)); mag[i][2] = -40f;
+        }
+    }
+
+    private int nextInput() {
+        return next = (next + 1) & (INPUTS - 1);
+    }
+
+    /** What the sender does without quaternion mode: rotation vector → matrix → yaw/pitch/roll. */
+    @Benchmark
+    public void eulerViaMatrix(Blackhole bh) {
+        RotationMath.getRotationMatrixFromVector(matrix, rot[nextInput()]);
+        RotationMath.getOrientation(matrix, out);
+        bh.consume(out);
+    }
+
+    /** Quaternion mode: the scalar part is all that needs computing. */
+    @Benchmark
+    public void quaternion(Blackhole bh) {
+        RotationMath.getQuaternionFromVector(out, rot[nextInput()]);
+        bh.consume(out);
+    }
+
+    @Benchmark
+    public void madgwick(Blackhole bh) {
+        int i = nextInput();
+        madgwick.update(gyr[i], acc[i], mag[i], 0.005f);
+        madgwick.getRotationVector(out);
+        bh.consume(out);
+    }
+
+    @Benchmark
+    public void mahony(Blackhole bh) {
+        int i = nextInput();
+        mahony.update(gyr[i], acc[i], mag[i], 0.005f);
+        mahony.getRotationVector(out);
+        bh.consume(out);
+    }
+}
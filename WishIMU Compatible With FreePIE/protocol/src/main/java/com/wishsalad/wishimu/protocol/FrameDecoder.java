@@ -0,0 +1,135 @@
+package com.wishsalad.wishimu.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static com.wishsalad.wishimu.protocol.WireFormat.*;
+
+/**
+ * Parses frames the way ps3pie's plugins/android.js does, for tools and tests on the
+ * receiving side. Keeps the COMPACT keyframe of each device index, so one decoder can read
+ * the interleaved streams of several phones. Not thread-safe; does not allocate per frame.
+ */
+public final class FrameDecoder {
+
+    /** One decoded frame. Reused by the caller across {@link #decode} calls. */
+    public static final class Frame {
+        public int deviceIndex;
+        public int flags;
+        public int count;
+        public int valuesPerSample;
+        /** Compact header byte, or -1 when the frame is not COMPACT. */
+        public int compactHeader;
+        /**
+         * True for a delta frame whose keyframe was never received; its values are not
+         * filled in, exactly as ps3pie drops it.
+         */
+        public boolean skipped;
+        /** Button byte, or -1 when absent. */
+        public int buttons;
+        /** Trailer sequence number as an unsigned value, or -1 when absent. */
+        public long sequence;
+        /** Trailer timestamp in ns; 0 when absent. */
+        public long timestamp;
+        /** Number of edge counters, 0 when the frame is not EDGES. */
+        public int edgeCount;
+        /** Transition counters of buttons 0..edgeCount-1, unsigned, wrapping at 256. */
+        public final int[] edges = new int[255];
+        /** count * valuesPerSample values, in the units the sensors report (COMPACT ones rescaled). */
+        public final float[] values = new float[MAX_BATCH * MAX_VALUES_PER_SAMPLE];
+
+        public float value(int sample, int i) {
+            return values[sample * valuesPerSample + i];
+        }
+    }
+
+    private final short[][] keyframes = new short[256][MAX_VALUES_PER_SAMPLE];
+    private final int[] keyframeIds = new int[256];
+    private final short[] quantized = new short[MAX_BATCH * MAX_VALUES_PER_SAMPLE];
+
+    public FrameDecoder() {
+        reset();
+    }
+
+    /** Forgets every keyframe. */
+    public void reset() {
+        Arrays.fill(keyframeIds, -1);
+    }
+
+    /**
+     * Decodes the frame in {@code src} from its position to its limit into {@code out}. The
+     * buffer must be little-endian; its position is not moved. Returns false, leaving the
+     * keyframes untouched, when the frame is truncated or its count is out of range.
+     */
+    public boolean decode(ByteBuffer src, Frame out) {
+        if (src.order() != ByteOrder.LITTLE_ENDIAN) throw new IllegalArgumentException("buffer must be little-endian");
+        final int end = src.limit();
+        int p = src.position();
+        if (end - p < 2) return false;
+        out.deviceIndex = src.get(p++) & 0xFF;
+        final int flags = out.flags = src.get(p++) & 0xFF;
+        final boolean compact = (flags & COMPACT) != 0;
+        final int per = out.valuesPerSample = valuesPerSample(flags);
+
+        int header = -1;
+        if (compact) {
+            if (p >= end) return false;
+            header = src.get(p++) & 0xFF;
+        }
+        int count = 1;
+        if ((flags & BATCH) != 0) {
+            if (p >= end) return false;
+            count = src.get(p++) & 0xFF;
+            if (count < 1 || count > MAX_BATCH) return false;
+        }
+        out.count = count;
+        out.compactHeader = header;
+
+        final int n = count * per;
+        final boolean delta = compact && (header & COMPACT_DELTA) != 0;
+        final int bodyBytes = n * (!compact ? 4 : delta ? 1 : 2);
+        final int tailBytes = ((flags & BUTTONS) != 0 ? 1 : 0) + ((flags & SEQUENCE) != 0 ? TRAILER_BYTES : 0);
+        if (end - p < bodyBytes + tailBytes) return false;
+
+        out.skipped = false;
+        if (!compact) {
+            for (int i = 0; i < n; i++) out.values[i] = src.getFloat(p + 4 * i);
+        } else {
+            final int device = out.deviceIndex, id = header & 0x7F;
+            final short[] key = keyframes[device], q = quantized;
+            if (delta && keyframeIds[device] != id) {
+                out.skipped = true;             // reference keyframe was lost
+            } else {
+                for (int i = 0; i < n; i++) {
+                    q[i] = delta ? (short) (key[i % per] + src.get(p + i)) : src.getShort(p + 2 * i);
+                }
+                for (int i = 0; i < n; i++) out.values[i] = q[i] / lsb(flags, i % per);
+                if (!delta) {
+                    System.arraycopy(q, n - per, key, 0, per);
+                    keyframeIds[device] = id;
+                }
+            }
+        }
+        p += bodyBytes;
+
+        out.buttons = (flags & BUTTONS) != 0 ? src.get(p++) & 0xFF : -1;
+        if ((flags & SEQUENCE) != 0) {
+            out.sequence = src.getInt(p) & 0xFFFFFFFFL;
+            out.timestamp = src.getLong(p + 4);
+            p += TRAILER_BYTES;
+        } else {
+            out.sequence = -1;
+            out.timestamp = 0;
+        }
+        out.edgeCount = 0;
+        if ((flags & EDGES) != 0 && p < end) {
+            final int buttons = src.get(p++) & 0xFF;
+            if (end - p >= buttons) {
+                for (int i = 0; i < buttons; i++) out.edges[i] = src.get(p + i) & 0xFF;
+                out.edgeCount = buttons;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,181 @@
+package com.wishsalad.wishimu.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.wishsalad.wishimu.protocol.WireFormat.*;
+
+/**
+ * Encodes frames in place into a caller-owned little-endian buffer without allocating.
+ *
+ * Usage per frame: stage each sample with {@link #setSample}, then call {@link #encode};
+ * {@link #encodeButtons} writes a frame that carries the buttons alone.
+ * The encoder keeps the state that spans frames: the sequence counter and, in COMPACT mode,
+ * the current keyframe. Not thread-safe; one encoder per sending thread.
+ */
+public final class FrameEncoder {
+
+    private int deviceIndex;
+    private int flags;
+    private boolean compactDelta;
+    private int perSample;
+
+    /** Staged samples, perSample values each. */
+    private final float[] values = new float[MAX_BATCH * MAX_VALUES_PER_SAMPLE];
+    private final short[] quantized = new short[MAX_BATCH * MAX_VALUES_PER_SAMPLE];
+    private final short[] keyframe = new short[MAX_VALUES_PER_SAMPLE];
+    private int keyframeId = -1;
+    private int framesSinceKeyframe;
+    private int sequence;
+
+    /**
+     * Sets the stream parameters, restarts the sequence at 0 and forces a keyframe.
+     *
+     * @param flags        RAW, ORIENTATION, BUTTONS, SEQUENCE, COMPACT, QUATERNION and EDGES
+     *                     as wanted; BATCH is decided per frame by {@link #encode}
+     * @param compactDelta with COMPACT: send int8 delta frames between keyframes
+     */
+    public void configure(int deviceIndex, int flags, boolean compactDelta) {
+        this.deviceIndex = deviceIndex & 0xFF;
+        this.flags = flags & ~BATCH;
+        if ((flags & ORIENTATION) == 0) this.flags &= ~QUATERNION;
+        if ((flags & BUTTONS) == 0) this.flags &= ~EDGES;
+        this.compactDelta = compactDelta && (flags & COMPACT) != 0;
+        this.perSample = valuesPerSample(this.flags);
+        sequence = 0;
+        reset();
+    }
+
+    /**
+     * Forces a keyframe with a new id; call when a new connection starts, as the receiver may
+     * not hold the current one. The sequence keeps counting, so the receiver and the RTT
+     * tracker see one stream across reconnects.
+     */
+    public void reset() {
+        keyframeId = -1;
+        framesSinceKeyframe = 0;
+    }
+
+    public int flags() {
+        return flags;
+    }
+
+    /** Sequence number written by the last frame, if it carried the trailer. */
+    public int lastSequence() {
+        return sequence - 1;
+    }
+
+    /**
+     * Stages sample {@code i} of the next frame. Arrays the flags do not ask for may be null;
+     * {@code orientation} holds yaw/pitch/roll, or w/x/y/z with QUATERNION.
+     */
+    public void setSample(int i, float[] acc, float[] gyr, float[] mag, float[] orientation) {
+        final float[] v = values;
+        int n = i * perSample;
+        if ((flags & RAW) != 0) {
+            for (int k = 0; k < 3; k++) v[n++] = acc[k];
+            for (int k = 0; k < 3; k++) v[n++] = gyr[k];
+            for (int k = 0; k < 3; k++) v[n++] = mag[k];
+        }
+        if ((flags & ORIENTATION) != 0) {
+            int count = (flags & QUATERNION) != 0 ? 4 : 3;
+            for (int k = 0; k < count; k++) v[n++] = orientation[k];
+        }
+    }
+
+    /**
+     * Appends a frame of the staged samples [0, count) at the position of {@code dst}, which
+     * must be little-endian and have {@link WireFormat#MAX_FRAME_BYTES} remaining.
+     *
+     * @param batched   write a BATCH frame; otherwise count must be 1
+     * @param buttons   bitmask in bits 0-7; with EDGES, bits 8-31 hold the transition
+     *                  counters of buttons 0-2, one byte each
+     * @param timestamp SensorEvent.timestamp of the newest sample, for the trailer
+     */
+    public void encode(ByteBuffer dst, int count, boolean batched, int buttons, long timestamp) {
+        if (dst.order() != ByteOrder.LITTLE_ENDIAN) throw new IllegalArgumentException("buffer must be little-endian");
+        if (count < 1 || count > MAX_BATCH || (!batched && count != 1)) {
+            throw new IllegalArgumentException("count " + count);
+        }
+        dst.put((byte) deviceIndex);
+        dst.put((byte) (flags | (batched ? BATCH : 0)));
+
+        final int n = count * perSample;
+        if ((flags & COMPACT) != 0) {
+            boolean delta = quantize(n);
+            dst.put((byte) ((delta ? COMPACT_DELTA : 0) | keyframeId));
+            if (batched) dst.put((byte) count);
+            if (delta) {
+                for (int i = 0; i < n; i++) dst.put((byte) (quantized[i] - keyframe[i % perSample]));
+            } else {
+                for (int i = 0; i < n; i++) dst.putShort(quantized[i]);
+            }
+        } else {
+            if (batched) dst.put((byte) count);
+            for (int i = 0; i < n; i++) dst.putFloat(values[i]);
+        }
+
+        if ((flags & BUTTONS) != 0) dst.put((byte) buttons);
+        putTail(dst, buttons, timestamp);
+    }
+
+    /**
+     * Appends a button-only frame: device index, BUTTONS (plus SEQUENCE and EDGES when
+     * configured), the button byte, the trailer and the edge counters. It carries no sample, so
+     * receivers keep the motion values they have; it takes the next sequence number but leaves
+     * the COMPACT keyframe alone.
+     *
+     * @param buttons   as for {@link #encode}
+     * @param timestamp elapsedRealtimeNanos of the button edge, for the trailer
+     */
+    public void encodeButtons(ByteBuffer dst, int buttons, long timestamp) {
+        if (dst.order() != ByteOrder.LITTLE_ENDIAN) throw new IllegalArgumentException("buffer must be little-endian");
+        dst.put((byte) deviceIndex);
+        dst.put((byte) (BUTTONS | (flags & (SEQUENCE | EDGES))));
+        dst.put((byte) buttons);
+        putTail(dst, buttons, timestamp);
+    }
+
+    /** Writes what follows the button byte: the sequence trailer and the edge counters. */
+    private void putTail(ByteBuffer dst, int buttons, long timestamp) {
+        if ((flags & SEQUENCE) != 0) {
+            dst.putInt(sequence++);
+            dst.putLong(timestamp);
+        }
+        if ((flags & EDGES) != 0) {
+            dst.put((byte) EDGE_BUTTONS);
+            for (int i = 1; i <= EDGE_BUTTONS; i++) dst.put((byte) (buttons >>> 8 * i));
+        }
+    }
+
+    /**
+     * Quantizes values[0..n) and returns whether the frame goes out as a delta frame: when
+     * enabled, a keyframe is recent enough and every difference fits in an int8. Otherwise
+     * the frame becomes the new keyframe.
+     */
+    private boolean quantize(int n) {
+        final short[] q = quantized;
+        final int per = perSample;
+        for (int i = 0; i < n; i++) q[i] = quantize(values[i], lsb(flags, i % per));
+
+        boolean delta = compactDelta && keyframeId >= 0 && framesSinceKeyframe < KEYFRAME_INTERVAL;
+        for (int i = 0; delta && i < n; i++) {
+            int d = q[i] - keyframe[i % per];
+            delta = d >= -127 && d <= 127;
+        }
+        if (delta) {
+            framesSinceKeyframe++;
+        } else {
+            keyframeId = (keyframeId + 1) & 0x7F;
+            framesSinceKeyframe = 0;
+            System.arraycopy(q, n - per, keyframe, 0, per);
+        }
+        return delta;
+    }
+
+    static short quantize(float v, float lsb) {
+        float x = v * lsb;
+        if (x != x) return 0; // NaN
+        return (short) Math.max(-32767, Math.min(32767, Math.round(x)));
+    }
+}
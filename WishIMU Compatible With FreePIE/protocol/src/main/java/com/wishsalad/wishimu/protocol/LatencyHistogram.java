@@ -0,0 +1,68 @@
+package com.wishsalad.wishimu.protocol;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size log-linear latency histogram in microseconds, in the spirit of HdrHistogram:
+ * values below 32 µs get one bucket each, and every power of two above that is split into
+ * 32 buckets, so any recorded value is known to within ~3 %. Values of 33 s and more share
+ * the last bucket.
+ *
+ * One writer thread records with ordered stores and never allocates; any thread may copy
+ * the counts with {@link #copyTo} and compute percentiles over a copy, or over the
+ * difference of two copies to get an interval histogram.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    /** Highest power of two covered: 2^24 µs ≈ 16.8 s, i.e. values up to ~33 s. */
+    private static final int MAX_EXP = 24;
+    public static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** Writer thread only. Negative values (clock skew) count as 0. */
+    public void recordNanos(long nanos) {
+        int i = index(nanos < 0 ? 0 : nanos / 1000);
+        counts.lazySet(i, counts.get(i) + 1);
+    }
+
+    /** Any thread: copies the bucket counts into {@code dst}, which must hold {@link #BUCKETS}. */
+    public void copyTo(long[] dst) {
+        for (int i = 0; i < BUCKETS; i++) dst[i] = counts.get(i);
+    }
+
+    /**
+     * Value in µs at quantile {@code q} (0..1) of {@code counts} minus {@code base} (pass
+     * null for the whole history). Reports the bucket's upper edge, so p99 never
+     * under-states. Returns -1 when no value was recorded in between.
+     */
+    public static long percentile(long[] counts, long[] base, double q) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += counts[i] - (base == null ? 0 : base[i]);
+        if (total <= 0) return -1;
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i] - (base == null ? 0 : base[i]);
+            if (seen >= rank) return upperEdge(i);
+        }
+        return upperEdge(BUCKETS - 1);
+    }
+
+    static int index(long micros) {
+        if (micros < SUB) return (int) micros;
+        int exp = 63 - Long.numberOfLeadingZeros(micros);
+        if (exp > MAX_EXP) return BUCKETS - 1;
+        int sub = (int) (micros >>> (exp - SUB_BITS)) & (SUB - 1);
+        return (exp - SUB_BITS + 1) * SUB + sub;
+    }
+
+    /** Largest value, in µs, that lands in bucket {@code i}. */
+    static long upperEdge(int i) {
+        if (i < SUB) return i;
+        int shift = i / SUB - 1;
+        return ((long) (SUB + i % SUB + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,74 @@
+package com.wishsalad.wishimu.protocol;
+
+/**
+ * Madgwick gradient-descent orientation filter (S. Madgwick, "An efficient orientation filter
+ * for inertial and inertial/magnetic sensor arrays", 2010).
+ *
+ * Each step integrates the gyroscope and then moves the estimate one normalized
+ * gradient step, scaled by beta, towards the attitude that best explains the measured
+ * gravity and magnetic field. Larger beta trusts the accelerometer/magnetometer more:
+ * faster drift correction, more jitter.
+ */
+public final class MadgwickFilter extends QuaternionFusion {
+
+    private final float beta;
+
+    /** @param beta gradient step gain in rad/s; 0.1 is a good start for phone sensors */
+    public MadgwickFilter(float beta) {
+        this.beta = beta;
+    }
+
+    @Override
+    void step(float gx, float gy, float gz,
+              float ax, float ay, float az,
+              float mx, float my, float mz, float dt) {
+        float an = ax * ax + ay * ay + az * az;
+        if (an == 0f) {
+            integrate(gx, gy, gz, dt);
+            return;
+        }
+        an = invSqrt(an);
+        ax *= an; ay *= an; az *= an;
+
+        final float q0 = this.q0, q1 = this.q1, q2 = this.q2, q3 = this.q3;
+
+        // Objective for gravity: predicted (0, 0, 1) in the device frame minus the measurement.
+        float fg1 = 2f * (q1 * q3 - q0 * q2) - ax;
+        float fg2 = 2f * (q0 * q1 + q2 * q3) - ay;
+        float fg3 = 1f - 2f * (q1 * q1 + q2 * q2) - az;
+        // Gradient Jᵀf.
+        float s0 = -2f * q2 * fg1 + 2f * q1 * fg2;
+        float s1 = 2f * q3 * fg1 + 2f * q0 * fg2 - 4f * q1 * fg3;
+        float s2 = -2f * q0 * fg1 + 2f * q3 * fg2 - 4f * q2 * fg3;
+        float s3 = 2f * q1 * fg1 + 2f * q2 * fg2;
+
+        float mn = mx * mx + my * my + mz * mz;
+        if (mn != 0f) {
+            mn = invSqrt(mn);
+            mx *= mn; my *= mn; mz *= mn;
+            // Earth-frame field direction; only its horizontal magnitude and vertical part matter.
+            float hx = mx * (1f - 2f * (q2 * q2 + q3 * q3)) + my * 2f * (q1 * q2 - q0 * q3) + mz * 2f * (q1 * q3 + q0 * q2);
+            float hy = mx * 2f * (q1 * q2 + q0 * q3) + my * (1f - 2f * (q1 * q1 + q3 * q3)) + mz * 2f * (q2 * q3 - q0 * q1);
+            float hz = mx * 2f * (q1 * q3 - q0 * q2) + my * 2f * (q2 * q3 + q0 * q1) + mz * (1f - 2f * (q1 * q1 + q2 * q2));
+            float bx = (float) Math.sqrt(hx * hx + hy * hy);
+            float bz = hz;
+
+            float fb1 = 2f * bx * (0.5f - q2 * q2 - q3 * q3) + 2f * bz * (q1 * q3 - q0 * q2) - mx;
+            float fb2 = 2f * bx * (q1 * q2 - q0 * q3) + 2f * bz * (q0 * q1 + q2 * q3) - my;
+            float fb3 = 2f * bx * (q0 * q2 + q1 * q3) + 2f * bz * (0.5f - q1 * q1 - q2 * q2) - mz;
+            s0 += -2f * bz * q2 * fb1 + (-2f * bx * q3 + 2f * bz * q1) * fb2 + 2f * bx * q2 * fb3;
+            s1 += 2f * bz * q3 * fb1 + (2f * bx * q2 + 2f * bz * q0) * fb2 + (2f * bx * q3 - 4f * bz * q1) * fb3;
+            s2 += (-4f * bx * q2 - 2f * bz * q0) * fb1 + (2f * bx * q1 + 2f * bz * q3) * fb2 + (2f * bx * q0 - 4f * bz * q2) * fb3;
+            s3 += (-4f * bx * q3 + 2f * bz * q1) * fb1 + (-2f * bx * q0 + 2f * bz * q2) * fb2 + 2f * bx * q1 * fb3;
+        }
+
+        // q̇ = ½ q ⊗ (0, ω) − β ŝ
+        float sn = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+        sn = sn == 0f ? 0f : beta * invSqrt(sn);
+        float d0 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz) - sn * s0;
+        float d1 = 0.5f * (q0 * gx + q2 * gz - q3 * gy) - sn * s1;
+        float d2 = 0.5f * (q0 * gy - q1 * gz + q3 * gx) - sn * s2;
+        float d3 = 0.5f * (q0 * gz + q1 * gy - q2 * gx) - sn * s3;
+        set(q0 + d0 * dt, q1 + d1 * dt, q2 + d2 * dt, q3 + d3 * dt);
+    }
+}
@@ -0,0 +1,81 @@
+package com.wishsalad.wishimu.protocol;
+
+/**
+ * Mahony explicit complementary filter (R. Mahony et al., "Nonlinear complementary filters
+ * on the special orthogonal group", 2008).
+ *
+ * The misalignment between measured and predicted gravity / magnetic field is fed back
+ * into the gyro rate through a PI controller: kp sets how quickly the accelerometer and
+ * magnetometer pull the estimate back, ki slowly learns a constant gyro bias.
+ */
+public final class MahonyFilter extends QuaternionFusion {
+
+    private final float kp;
+    private final float ki;
+    /** Integral feedback, i.e. the current gyro bias estimate in rad/s. */
+    private float bx, by, bz;
+
+    /**
+     * @param kp proportional gain in rad/s; 1 is a good start for phone sensors
+     * @param ki integral gain; 0 disables bias estimation
+     */
+    public MahonyFilter(float kp, float ki) {
+        this.kp = kp;
+        this.ki = ki;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        bx = by = bz = 0f;
+    }
+
+    @Override
+    void step(float gx, float gy, float gz,
+              float ax, float ay, float az,
+              float mx, float my, float mz, float dt) {
+        float an = ax * ax + ay * ay + az * az;
+        if (an == 0f) {
+            integrate(gx, gy, gz, dt);
+            return;
+        }
+        an = invSqrt(an);
+        ax *= an; ay *= an; az *= an;
+
+        final float q0 = this.q0, q1 = this.q1, q2 = this.q2, q3 = this.q3;
+
+        // Predicted gravity in the device frame; error = measured × predicted.
+        float vx = 2f * (q1 * q3 - q0 * q2);
+        float vy = 2f * (q0 * q1 + q2 * q3);
+        float vz = 1f - 2f * (q1 * q1 + q2 * q2);
+        float ex = ay * vz - az * vy;
+        float ey = az * vx - ax * vz;
+        float ez = ax * vy - ay * vx;
+
+        float mn = mx * mx + my * my + mz * mz;
+        if (mn != 0f) {
+            mn = invSqrt(mn);
+            mx *= mn; my *= mn; mz *= mn;
+            // Earth-frame field, flattened to (hxy, 0, hz) so only heading is corrected by it.
+            float hx = mx * (1f - 2f * (q2 * q2 + q3 * q3)) + my * 2f * (q1 * q2 - q0 * q3) + mz * 2f * (q1 * q3 + q0 * q2);
+            float hy = mx * 2f * (q1 * q2 + q0 * q3) + my * (1f - 2f * (q1 * q1 + q3 * q3)) + mz * 2f * (q2 * q3 - q0 * q1);
+            float hz = mx * 2f * (q1 * q3 - q0 * q2) + my * 2f * (q2 * q3 + q0 * q1) + mz * (1f - 2f * (q1 * q1 + q2 * q2));
+            float rx = (float) Math.sqrt(hx * hx + hy * hy);
+            // That reference back in the device frame.
+            float wx = rx * (1f - 2f * (q2 * q2 + q3 * q3)) + hz * 2f * (q1 * q3 - q0 * q2);
+            float wy = rx * 2f * (q1 * q2 - q0 * q3) + hz * 2f * (q0 * q1 + q2 * q3);
+            float wz = rx * 2f * (q0 * q2 + q1 * q3) + hz * (1f - 2f * (q1 * q1 + q2 * q2));
+            ex += my * wz - mz * wy;
+            ey += mz * wx - mx * wz;
+            ez += mx * wy - my * wx;
+        }
+
+        if (ki > 0f) {
+            bx += ki * ex * dt;
+            by += ki * ey * dt;
+            bz += ki * ez * dt;
+            gx += bx; gy += by; gz += bz;
+        }
+        integrate(gx + kp * ex, gy + kp * ey, gz + kp * ez, dt);
+    }
+}
@@ -0,0 +1,31 @@
+package com.wishsalad.wishimu.protocol;
+
+/**
+ * Orientation estimator fed with raw sensor readings, used instead of the platform's
+ * TYPE_ROTATION_VECTOR when the user picks on-device fusion.
+ *
+ * Implementations are plain Java (no android.* imports), so they can be driven with recorded
+ * data on a desktop JVM. They are called on the sensor thread only and need no locking.
+ */
+public interface OrientationSource {
+
+    /**
+     * Advances the estimate by one step.
+     *
+     * @param gyr angular rate in rad/s, device frame; all zeros on phones without a gyroscope
+     * @param acc latest accelerometer reading in m/s²; all zeros skips the tilt correction
+     * @param mag latest magnetometer reading in µT; all zeros skips the heading correction
+     * @param dt  seconds since the previous step
+     */
+    void update(float[] gyr, float[] acc, float[] mag, float dt);
+
+    /**
+     * Writes the current orientation in TYPE_ROTATION_VECTOR form: x, y, z of a unit
+     * quaternion with w ≥ 0, rotating device coordinates into Android's world frame
+     * (x east, y north, z up). SensorManager's rotation-vector helpers accept it as is.
+     */
+    void getRotationVector(float[] out);
+
+    /** Forgets the current estimate; the next update() re-seeds it from accelerometer + magnetometer. */
+    void reset();
+}
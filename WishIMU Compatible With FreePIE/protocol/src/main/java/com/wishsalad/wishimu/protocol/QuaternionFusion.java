@@ -0,0 +1,107 @@
+package com.wishsalad.wishimu.protocol;
+
+/**
+ * Shared state of the quaternion fusion filters: the estimate itself, seeding it from the
+ * first accelerometer + magnetometer reading, gyro integration and conversion to Android's
+ * world frame.
+ *
+ * The filters work in the frame of the published algorithms — x magnetic north, y west,
+ * z up — and q rotates device coordinates into it. getRotationVector() turns that into the
+ * east-north-up frame TYPE_ROTATION_VECTOR uses with one fixed 90° turn about z.
+ */
+public abstract class QuaternionFusion implements OrientationSource {
+
+    private static final float HALF_SQRT2 = 0.70710678f;
+
+    /** Estimate as w, x, y, z. */
+    float q0 = 1f, q1, q2, q3;
+    private boolean seeded;
+
+    /** Filter-specific step; only called once the estimate has been seeded. */
+    abstract void step(float gx, float gy, float gz,
+                       float ax, float ay, float az,
+                       float mx, float my, float mz, float dt);
+
+    @Override
+    public final void update(float[] gyr, float[] acc, float[] mag, float dt) {
+        if (!seeded) {
+            seeded = seed(acc, mag);
+            return;
+        }
+        step(gyr[0], gyr[1], gyr[2], acc[0], acc[1], acc[2], mag[0], mag[1], mag[2], dt);
+    }
+
+    @Override
+    public final void getRotationVector(float[] out) {
+        // (cos 45°, 0, 0, sin 45°) ⊗ q, negated if needed so that w ≥ 0.
+        float w = HALF_SQRT2 * (q0 - q3);
+        float sign = w < 0 ? -HALF_SQRT2 : HALF_SQRT2;
+        out[0] = sign * (q1 - q2);
+        out[1] = sign * (q1 + q2);
+        out[2] = sign * (q3 + q0);
+    }
+
+    @Override
+    public void reset() {
+        q0 = 1f;
+        q1 = q2 = q3 = 0f;
+        seeded = false;
+    }
+
+    /** Integrates dq/dt = ½ q ⊗ (0, g) over dt and renormalizes. */
+    final void integrate(float gx, float gy, float gz, float dt) {
+        float h = 0.5f * dt;
+        set(q0 + h * (-q1 * gx - q2 * gy - q3 * gz),
+            q1 + h * (q0 * gx + q2 * gz - q3 * gy),
+            q2 + h * (q0 * gy - q1 * gz + q3 * gx),
+            q3 + h * (q0 * gz + q1 * gy - q2 * gx));
+    }
+
+    /** Stores (w, x, y, z) normalized to unit length. */
+    final void set(float w, float x, float y, float z) {
+        float n = invSqrt(w * w + x * x + y * y + z * z);
+        q0 = w * n;
+        q1 = x * n;
+        q2 = y * n;
+        q3 = z * n;
+    }
+
+    /**
+     * Points the estimate straight at the measured gravity and magnetic field so the filter
+     * does not have to converge from identity. Without a magnetometer reading the device
+     * y axis stands in for north. Returns false while there is no accelerometer reading.
+     */
+    private boolean seed(float[] acc, float[] mag) {
+        float ux = acc[0], uy = acc[1], uz = acc[2];
+        float un = ux * ux + uy * uy + uz * uz;
+        if (un == 0f) return false;
+        un = invSqrt(un);
+        ux *= un; uy *= un; uz *= un;
+
+        boolean hasMag = mag[0] != 0f || mag[1] != 0f || mag[2] != 0f;
+        float rx = hasMag ? mag[0] : 0f, ry = hasMag ? mag[1] : 1f, rz = hasMag ? mag[2] : 0f;
+        // North: the reference with its vertical component removed.
+        float d = rx * ux + ry * uy + rz * uz;
+        float nx = rx - d * ux, ny = ry - d * uy, nz = rz - d * uz;
+        float nn = nx * nx + ny * ny + nz * nz;
+        if (nn < 1e-6f) {           // reference is vertical (device on its edge): use device x
+            d = ux;
+            nx = 1f - d * ux; ny = -d * uy; nz = -d * uz;
+            nn = nx * nx + ny * ny + nz * nz;
+        }
+        nn = invSqrt(nn);
+        nx *= nn; ny *= nn; nz *= nn;
+        // West = up × north.
+        float wx = uy * nz - uz * ny, wy = uz * nx - ux * nz, wz = ux * ny - uy * nx;
+
+        float[] m = {nx, ny, nz, wx, wy, wz, ux, uy, uz};
+        float[] q = new float[4];
+        RotationMath.quaternionFromMatrix(m, q);
+        q0 = q[0]; q1 = q[1]; q2 = q[2]; q3 = q[3];
+        return true;
+    }
+
+    static float invSqrt(float x) {
+        return (float) (1.0 / Math.sqrt(x));
+    }
+}
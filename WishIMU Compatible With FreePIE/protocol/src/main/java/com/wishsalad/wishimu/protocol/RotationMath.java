@@ -0,0 +1,97 @@
+package com.wishsalad.wishimu.protocol;
+
+/**
+ * The rotation helpers of android.hardware.SensorManager that the sender relies on, with the
+ * same arithmetic as AOSP, for code that runs off-device: the replay tools and the
+ * benchmarks compute exactly the orientation the phone puts in a frame. Also the matrix to
+ * quaternion conversion the app and the fusion filters share. Row-major 3x3 matrices.
+ */
+public final class RotationMath {
+
+    private RotationMath() {}
+
+    /** SensorManager.getRotationMatrixFromVector for a 3-value rotation vector and a 3x3 R. */
+    public static void getRotationMatrixFromVector(float[] R, float[] rv) {
+        final float q1 = rv[0], q2 = rv[1], q3 = rv[2];
+        float q0 = 1 - q1 * q1 - q2 * q2 - q3 * q3;
+        q0 = q0 > 0 ? (float) Math.sqrt(q0) : 0;
+        float sqQ1 = 2 * q1 * q1, sqQ2 = 2 * q2 * q2, sqQ3 = 2 * q3 * q3;
+        float q1q2 = 2 * q1 * q2, q3q0 = 2 * q3 * q0, q1q3 = 2 * q1 * q3;
+        float q2q0 = 2 * q2 * q0, q2q3 = 2 * q2 * q3, q1q0 = 2 * q1 * q0;
+        R[0] = 1 - sqQ2 - sqQ3; R[1] = q1q2 - q3q0;    R[2] = q1q3 + q2q0;
+        R[3] = q1q2 + q3q0;    R[4] = 1 - sqQ1 - sqQ3; R[5] = q2q3 - q1q0;
+        R[6] = q1q3 - q2q0;    R[7] = q2q3 + q1q0;    R[8] = 1 - sqQ1 - sqQ2;
+    }
+
+    /** SensorManager.getQuaternionFromVector for a 3-value rotation vector: w, x, y, z. */
+    public static void getQuaternionFromVector(float[] Q, float[] rv) {
+        float w = 1 - rv[0] * rv[0] - rv[1] * rv[1] - rv[2] * rv[2];
+        Q[0] = w > 0 ? (float) Math.sqrt(w) : 0;
+        Q[1] = rv[0];
+        Q[2] = rv[1];
+        Q[3] = rv[2];
+    }
+
+    /**
+     * SensorManager.getRotationMatrix without the inclination matrix. Returns false, leaving R
+     * untouched, in free fall or close to the magnetic pole.
+     */
+    public static boolean getRotationMatrix(float[] R, float[] gravity, float[] geomagnetic) {
+        float ax = gravity[0], ay = gravity[1], az = gravity[2];
+        final float normsqA = ax * ax + ay * ay + az * az;
+        if (normsqA < 0.01f * 9.81f * 9.81f) return false;   // free fall
+        float ex = geomagnetic[0], ey = geomagnetic[1], ez = geomagnetic[2];
+        float hx = ey * az - ez * ay, hy = ez * ax - ex * az, hz = ex * ay - ey * ax;
+        final float normH = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        if (normH < 0.1f) return false;                      // free fall or magnetic north pole
+        final float invH = 1f / normH;
+        hx *= invH; hy *= invH; hz *= invH;
+        final float invA = 1f / (float) Math.sqrt(normsqA);
+        ax *= invA; ay *= invA; az *= invA;
+        final float mx = ay * hz - az * hy, my = az * hx - ax * hz, mz = ax * hy - ay * hx;
+        R[0] = hx; R[1] = hy; R[2] = hz;
+        R[3] = mx; R[4] = my; R[5] = mz;
+        R[6] = ax; R[7] = ay; R[8] = az;
+        return true;
+    }
+
+    /** SensorManager.getOrientation for a 3x3 R: yaw (azimuth), pitch, roll in rad. */
+    public static void getOrientation(float[] R, float[] values) {
+        values[0] = (float) Math.atan2(R[1], R[4]);
+        values[1] = (float) Math.asin(-R[7]);
+        values[2] = (float) Math.atan2(-R[6], R[8]);
+    }
+
+    /**
+     * Rotation matrix to unit quaternion (w, x, y, z), branching on the largest term; w may be
+     * negative.
+     */
+    public static void quaternionFromMatrix(float[] m, float[] q) {
+        float trace = m[0] + m[4] + m[8];
+        if (trace > 0) {
+            float s = (float) Math.sqrt(trace + 1f) * 2f;
+            q[0] = 0.25f * s;
+            q[1] = (m[7] - m[5]) / s;
+            q[2] = (m[2] - m[6]) / s;
+            q[3] = (m[3] - m[1]) / s;
+        } else if (m[0] > m[4] && m[0] > m[8]) {
+            float s = (float) Math.sqrt(1f + m[0] - m[4] - m[8]) * 2f;
+            q[0] = (m[7] - m[5]) / s;
+            q[1] = 0.25f * s;
+            q[2] = (m[1] + m[3]) / s;
+            q[3] = (m[2] + m[6]) / s;
+        } else if (m[4] > m[8]) {
+            float s = (float) Math.sqrt(1f + m[4] - m[0] - m[8]) * 2f;
+            q[0] = (m[2] - m[6]) / s;
+            q[1] = (m[1] + m[3]) / s;
+            q[2] = 0.25f * s;
+            q[3] = (m[5] + m[7]) / s;
+        } else {
+            float s = (float) Math.sqrt(1f + m[8] - m[0] - m[4]) * 2f;
+            q[0] = (m[3] - m[1]) / s;
+            q[1] = (m[2] + m[6]) / s;
+            q[2] = (m[5] + m[7]) / s;
+            q[3] = 0.25f * s;
+        }
+    }
+}
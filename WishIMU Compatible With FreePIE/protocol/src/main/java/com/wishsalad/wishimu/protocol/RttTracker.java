@@ -0,0 +1,100 @@
+package com.wishsalad.wishimu.protocol;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Round-trip statistics from sequence-number acks. The worker notes the send time of every
+ * sequenced datagram; ps3pie echoes the sequence number back in its ack, and the ack
+ * receiver matches it up.
+ *
+ * Send times live in a 256-slot table indexed by the low byte of the sequence number. Each
+ * slot packs the remaining 24 bits of the number (as a tag) with the send time in µs into
+ * one long, so a match is a single atomic read and an ack for a slot that has since been
+ * reused is simply not matched. A packet whose ack comes back more than 256 packets later
+ * therefore counts as lost.
+ *
+ * Smoothed RTT and variation follow RFC 6298. All times are in the caller's clock, in ns.
+ */
+public final class RttTracker {
+
+    private static final int SLOTS = 256;
+    private static final long TIME_MASK = (1L << 40) - 1;   // µs, wraps after ~12 days
+
+    private final AtomicLongArray sent = new AtomicLongArray(SLOTS);
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    // Written by the worker only.
+    private volatile long sentCount;
+    // Written by the ack receiver only.
+    private volatile long ackedCount;
+    private volatile long reorderedCount;
+    private volatile long smoothedNanos;
+    private volatile long variationNanos;
+    private volatile long minNanos = Long.MAX_VALUE;
+    private int highestAcked;
+    private boolean anyAcked;
+
+    /** Worker thread: {@code seq} is being written to the socket now. */
+    public void onSend(int seq, long nowNanos) {
+        sent.lazySet(seq & (SLOTS - 1), pack(seq, nowNanos));
+        //noinspection NonAtomicOperationOnVolatileField  single writer
+        sentCount++;
+    }
+
+    /** Ack receiver thread: ps3pie acknowledged {@code seq}. */
+    public void onAck(int seq, long nowNanos) {
+        final int slot = seq & (SLOTS - 1);
+        final long entry = sent.get(slot);
+        if (entry == 0 || (entry >>> 40) != ((seq >>> 8) & 0xFFFFFF)) return;  // unknown or too late
+        // Clear it so a duplicated ack is not counted twice; fails harmlessly if reused meanwhile.
+        if (!sent.compareAndSet(slot, entry, 0)) return;
+
+        long rtt = (((nowNanos / 1000) - entry) & TIME_MASK) * 1000;
+        histogram.recordNanos(rtt);
+        if (ackedCount == 0) {
+            smoothedNanos = rtt;
+            variationNanos = rtt / 2;
+        } else {
+            long s = smoothedNanos;
+            variationNanos += (Math.abs(s - rtt) - variationNanos) / 4;
+            smoothedNanos = s + (rtt - s) / 8;
+        }
+        if (rtt < minNanos) minNanos = rtt;
+        //noinspection NonAtomicOperationOnVolatileField  single writer
+        ackedCount++;
+
+        if (anyAcked && seq - highestAcked < 0) {
+            //noinspection NonAtomicOperationOnVolatileField  single writer
+            reorderedCount++;
+        } else {
+            highestAcked = seq;
+            anyAcked = true;
+        }
+    }
+
+    /** Forgets the smoothed figures; call before a new connection starts sending. */
+    public void reset() {
+        for (int i = 0; i < SLOTS; i++) sent.set(i, 0);
+        smoothedNanos = variationNanos = 0;
+        minNanos = Long.MAX_VALUE;
+        anyAcked = false;
+        sentCount = ackedCount = reorderedCount = 0;
+    }
+
+    public long sent()         { return sentCount; }
+    public long acked()        { return ackedCount; }
+    public long reordered()    { return reorderedCount; }
+    /** RFC 6298 SRTT, or 0 before the first matched ack. */
+    public long smoothedNanos() { return smoothedNanos; }
+    public long variationNanos() { return variationNanos; }
+    /** Lowest RTT seen, or 0 before the first matched ack. */
+    public long minNanos()     { long m = minNanos; return m == Long.MAX_VALUE ? 0 : m; }
+
+    public LatencyHistogram histogram() {
+        return histogram;
+    }
+
+    private static long pack(int seq, long nanos) {
+        return ((long) ((seq >>> 8) & 0xFFFFFF) << 40) | ((nanos / 1000) & TIME_MASK);
+    }
+}
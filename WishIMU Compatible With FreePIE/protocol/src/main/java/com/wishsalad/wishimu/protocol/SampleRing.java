@@ -0,0 +1,116 @@
+package com.wishsalad.wishimu.protocol;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer / single-consumer ring of {@link SensorSample} slots.
+ *
+ * The sensor callback is the only producer and the sender thread the only consumer, so
+ * neither side ever takes a lock: the producer copies into the next free slot and publishes
+ * it with an ordered store of {@code head}; the consumer copies out and hands the slots back
+ * with a compare-and-set of {@code tail}.
+ *
+ * When the sender stalls (e.g. a Wi-Fi send blocks for a few ms, or the paced sender sleeps
+ * through a long period) and the ring fills up, the producer discards the oldest sample by
+ * advancing {@code tail} itself, so the newest sample is always there for
+ * {@link #drainLatest} and the sensor thread never blocks. A slot can only be overwritten
+ * after {@code tail} has moved past it, so a consumer whose final compare-and-set fails may
+ * have read a torn slot and copies again; one that succeeds read a slot nobody wrote.
+ */
+public final class SampleRing {
+    private final SensorSample[] slots;
+    private final int mask;
+
+    /** Index of the next slot to write. Written only by the producer. */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * Index of the next slot to read. Advanced by both sides, only by compare-and-set: the
+     * consumer when it releases slots, the producer when it discards the oldest sample.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /** Producer-local copy of tail, refreshed only when the ring looks full. */
+    private long cachedTail;
+
+    /** Oldest samples discarded because the ring was full. Written only by the producer. */
+    private volatile long dropped;
+
+    /** @param capacity number of slots, must be a power of two */
+    public SampleRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        slots = new SensorSample[capacity];
+        for (int i = 0; i < capacity; i++) slots[i] = new SensorSample();
+        mask = capacity - 1;
+    }
+
+    /**
+     * Producer side. Copies {@code s} into the ring, first discarding (and counting) the
+     * oldest pending sample if it is full. Returns false if one was discarded.
+     */
+    public boolean offer(SensorSample s) {
+        long h = head.get();
+        boolean kept = true;
+        if (h - cachedTail >= slots.length) {
+            cachedTail = tail.get();
+            if (h - cachedTail >= slots.length) {
+                if (tail.compareAndSet(cachedTail, cachedTail + 1)) {
+                    cachedTail++;
+                    //noinspection NonAtomicOperationOnVolatileField  single writer
+                    dropped++;
+                    kept = false;
+                } else {
+                    cachedTail = tail.get();   // the consumer just freed slots
+                }
+            }
+        }
+        slots[(int) h & mask].copyFrom(s);
+        head.lazySet(h + 1);
+        return kept;
+    }
+
+    /**
+     * Consumer side. Copies the newest pending sample into {@code dst} and releases every
+     * pending slot. Returns the number of samples consumed; {@code dst} is untouched when 0.
+     */
+    public int drainLatest(SensorSample dst) {
+        while (true) {
+            long t = tail.get();
+            long h = head.get();
+            if (h == t) return 0;
+            dst.copyFrom(slots[(int) (h - 1) & mask]);
+            if (tail.compareAndSet(t, h)) return (int) (h - t);
+        }
+    }
+
+    /**
+     * Consumer side. Copies up to {@code max} of the oldest pending samples, in order, into
+     * {@code dst[0..]} and releases their slots. Returns the number copied.
+     */
+    public int drainTo(SensorSample[] dst, int max) {
+        while (true) {
+            long t = tail.get();
+            int n = (int) Math.min(head.get() - t, max);
+            if (n <= 0) return 0;
+            for (int i = 0; i < n; i++) dst[i].copyFrom(slots[(int) (t + i) & mask]);
+            if (tail.compareAndSet(t, t + n)) return n;
+        }
+    }
+
+    /**
+     * Consumer side. receivedNanos of the oldest pending sample; only valid when size() > 0,
+     * and only a hint while the ring is full, as the producer may be replacing that slot.
+     */
+    public long oldestReceivedNanos() {
+        return slots[(int) tail.get() & mask].receivedNanos;
+    }
+
+    /** Number of samples published but not yet consumed. Safe to call from any thread. */
+    public int size() {
+        long t = tail.get();
+        return (int) (head.get() - t);
+    }
+
+    public long dropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,131 @@
+package com.wishsalad.wishimu.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Append-only binary log of raw SensorEvents, as written by the app's record mode.
+ *
+ * All little-endian. A 24-byte header:
+ * <pre>
+ *   char[4] "WIMU"
+ *   uint16  version (1)
+ *   uint16  header length in bytes (24)
+ *   int64   wall clock at start, ms since the epoch
+ *   int64   SystemClock.elapsedRealtimeNanos() at start, the time base of the records
+ * </pre>
+ * followed by records of 12 + 4 * count bytes:
+ * <pre>
+ *   uint8   Sensor.TYPE_* of the event
+ *   uint8   value count, 1..MAX_VALUES
+ *   int8    SensorEvent.accuracy
+ *   uint8   reserved, 0
+ *   int64   SensorEvent.timestamp, ns
+ *   float32 values[count]
+ * </pre>
+ * The writer only ever appends whole records, but a log cut short by a crash may end in a
+ * partial one; {@link Reader} stops before it.
+ */
+public final class SensorLog {
+
+    private SensorLog() {}
+
+    public static final int MAGIC = 'W' | 'I' << 8 | 'M' << 16 | 'U' << 24;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 24;
+    public static final int RECORD_HEADER_BYTES = 12;
+    /** Longest value array kept per event (uncalibrated gyroscope and magnetometer have 6). */
+    public static final int MAX_VALUES = 6;
+    public static final int MAX_RECORD_BYTES = RECORD_HEADER_BYTES + 4 * MAX_VALUES;
+    public static final String FILE_EXTENSION = ".wimulog";
+
+    // android.hardware.Sensor.TYPE_* of the sensors the app listens to.
+    public static final int TYPE_ACCELEROMETER = 1;
+    public static final int TYPE_MAGNETIC_FIELD = 2;
+    public static final int TYPE_GYROSCOPE = 4;
+    public static final int TYPE_ROTATION_VECTOR = 11;
+
+    public static int recordBytes(int count) {
+        return RECORD_HEADER_BYTES + 4 * count;
+    }
+
+    /** Writes the header at the position of {@code dst}, which must be little-endian. */
+    public static void putHeader(ByteBuffer dst, long wallMillis, long elapsedNanos) {
+        dst.putInt(MAGIC);
+        dst.putShort((short) VERSION);
+        dst.putShort((short) HEADER_BYTES);
+        dst.putLong(wallMillis);
+        dst.putLong(elapsedNanos);
+    }
+
+    /**
+     * Appends one record at the position of {@code dst}, which must be little-endian. Values
+     * beyond MAX_VALUES are dropped.
+     */
+    public static void putRecord(ByteBuffer dst, int type, int accuracy, long timestamp,
+                                 float[] values, int offset, int count) {
+        count = Math.min(count, MAX_VALUES);
+        dst.put((byte) type);
+        dst.put((byte) count);
+        dst.put((byte) accuracy);
+        dst.put((byte) 0);
+        dst.putLong(timestamp);
+        for (int i = 0; i < count; i++) dst.putFloat(values[offset + i]);
+    }
+
+    /** One decoded record, reused across {@link Reader#next} calls. */
+    public static final class Record {
+        public int type;
+        public int accuracy;
+        public int count;
+        public long timestamp;
+        public final float[] values = new float[MAX_VALUES];
+    }
+
+    /**
+     * Sequential reader over a whole log in memory or mapped from a file. Does not allocate
+     * per record.
+     */
+    public static final class Reader {
+        private final ByteBuffer src;
+        public final long wallMillis;
+        public final long elapsedNanos;
+
+        /** @throws IOException if {@code log} does not start with a log header this version understands */
+        public Reader(ByteBuffer log) throws IOException {
+            src = log.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            if (src.remaining() < HEADER_BYTES || src.getInt() != MAGIC) {
+                throw new IOException("not a WishIMU sensor log");
+            }
+            int version = src.getShort() & 0xFFFF;
+            int headerBytes = src.getShort() & 0xFFFF;
+            if (version != VERSION || headerBytes < HEADER_BYTES) {
+                throw new IOException("unsupported sensor log version " + version);
+            }
+            wallMillis = src.getLong();
+            elapsedNanos = src.getLong();
+            src.position(src.position() - HEADER_BYTES + headerBytes);
+        }
+
+        /** Reads the next record into {@code r}; false at the end of the log or a torn tail. */
+        public boolean next(Record r) {
+            if (src.remaining() < RECORD_HEADER_BYTES) return false;
+            int p = src.position();
+            int count = src.get(p + 1) & 0xFF;
+            if (count < 1 || count > MAX_VALUES || src.remaining() < recordBytes(count)) return false;
+            r.type = src.get(p) & 0xFF;
+            r.count = count;
+            r.accuracy = src.get(p + 2);
+            r.timestamp = src.getLong(p + 4);
+            for (int i = 0; i < count; i++) r.values[i] = src.getFloat(p + RECORD_HEADER_BYTES + 4 * i);
+            src.position(p + recordBytes(count));
+            return true;
+        }
+
+        /** Byte offset of the next record, for progress reporting. */
+        public long position() {
+            return src.position();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.wishsalad.wishimu.protocol;
+
+/**
+ * One coalesced IMU sample: the latest value of every sensor the service listens to.
+ * Orientation is not stored; the sender derives it from {@code rot} (or acc + mag) once per
+ * outgoing sample instead of once per incoming event.
+ * Instances are preallocated and reused; {@link #copyFrom} is the only way data moves
+ * between the sensor thread and the sender thread.
+ */
+public final class SensorSample {
+    public final float[] acc = new float[3];
+    public final float[] gyr = new float[3];
+    public final float[] mag = new float[3];
+    /** TYPE_ROTATION_VECTOR x, y, z; the scalar part is derived when needed. */
+    public final float[] rot = new float[3];
+    /** SensorEvent.timestamp of the freshest event folded into this sample (elapsedRealtimeNanos base). */
+    public long timestamp;
+    /** SystemClock.elapsedRealtimeNanos() when the event that produced this sample was delivered. */
+    public long receivedNanos;
+
+    public void copyFrom(SensorSample o) {
+        System.arraycopy(o.acc, 0, acc, 0, 3);
+        System.arraycopy(o.gyr, 0, gyr, 0, 3);
+        System.arraycopy(o.mag, 0, mag, 0, 3);
+        System.arraycopy(o.rot, 0, rot, 0, 3);
+        timestamp = o.timestamp;
+        receivedNanos = o.receivedNanos;
+    }
+}
@@ -0,0 +1,121 @@
+package com.wishsalad.wishimu.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Constants of the FreePIE IMU wire protocol as sent by WishIMU and read by ps3pie
+ * (plugins/android.js describes the same layout from the receiving side).
+ *
+ * A frame is, all little-endian:
+ * <pre>
+ *   uint8   device index
+ *   uint8   flags
+ *   uint8   compact header            COMPACT only: bit 7 = delta, bits 0-6 = keyframe id
+ *   uint8   sample count              BATCH only
+ *   samples                           float32 each, or int16 / int8 delta with COMPACT
+ *   uint8   buttons                   BUTTONS only
+ *   uint32  sequence number           SEQUENCE only
+ *   int64   SensorEvent.timestamp, ns SEQUENCE only; of the newest sample
+ *   uint8   edge counter count n      EDGES only
+ *   uint8   edge counters × n         EDGES only; transitions of buttons 0..n-1, wrapping
+ * </pre>
+ * A sample is acc, gyr, mag (9 values, RAW) followed by yaw/pitch/roll (3 values) or a
+ * w/x/y/z quaternion (4 values, with QUATERNION) when ORIENTATION is set. With neither RAW
+ * nor ORIENTATION a frame has no sample values: the button-only frame WishIMU sends on a
+ * button edge, after which receivers keep the motion values of the last sensor frame.
+ *
+ * The host answers every frame with {@link #ACK}; when the frame carried a sequence number
+ * the ack echoes it as a uint32 after the ack byte.
+ */
+public final class WireFormat {
+
+    private WireFormat() {}
+
+    public static final int DEFAULT_PORT = 5555;
+
+    public static final int RAW = 0x01;
+    public static final int ORIENTATION = 0x02;
+    public static final int BUTTONS = 0x04;
+    /** Body holds a uint8 sample count followed by that many samples. */
+    public static final int BATCH = 0x08;
+    /**
+     * Appends a uint32 sequence number and the int64 timestamp of the newest sample after the
+     * button byte. Legacy parsers stop at the button byte and never see the trailer.
+     */
+    public static final int SEQUENCE = 0x10;
+    /**
+     * Values are int16 fixed-point (value * *_LSB) instead of float32, preceded by the compact
+     * header. Delta frames carry int8 differences against the last sample of keyframe {id},
+     * so a lost delta frame costs nothing and a lost keyframe only until the next one.
+     */
+    public static final int COMPACT = 0x20;
+    /** With ORIENTATION: the orientation block is a unit quaternion (w, x, y, z). */
+    public static final int QUATERNION = 0x40;
+    /**
+     * With BUTTONS: the frame ends with a transition counter per button, so a receiver that
+     * missed frames can replay every press and release in between instead of only seeing the
+     * current bitmask. Last in the frame, where parsers that do not know it never look.
+     */
+    public static final int EDGES = 0x80;
+
+    public static final float ACC_LSB = 200f;    // per m/s²  → ±163 m/s² (≈ ±16 g), 0.005 m/s² steps
+    public static final float GYR_LSB = 900f;    // per rad/s → ±36 rad/s (≈ ±2080 °/s)
+    public static final float MAG_LSB = 10f;     // per µT    → ±3276 µT, 0.1 µT steps
+    public static final float ORI_LSB = 10000f;  // per rad   → ±3.27 rad covers ±π, 0.0001 rad steps
+    public static final float QUAT_LSB = 32767f; // per unit  → quaternion components in [-1, 1]
+
+    /** Compact header bit marking a delta frame. */
+    public static final int COMPACT_DELTA = 0x80;
+    /** A keyframe is forced at least this often so receivers that missed one recover quickly. */
+    public static final int KEYFRAME_INTERVAL = 32;
+
+    /** Upper bound for the sample count; keeps a full batch frame well under a 1500-byte MTU. */
+    public static final int MAX_BATCH = 16;
+    /** 9 raw values + a 4-value quaternion. */
+    public static final int MAX_VALUES_PER_SAMPLE = 13;
+    public static final int TRAILER_BYTES = 12;
+    /** Edge counters WishIMU sends: buttons 0-2, which fit beside the bitmask in one int. */
+    public static final int EDGE_BUTTONS = 3;
+    /** Index, flags, compact header, count, buttons, the largest body and the trailer. */
+    public static final int MAX_FRAME_BYTES = 5 + MAX_BATCH * MAX_VALUES_PER_SAMPLE * 4 + TRAILER_BYTES
+            + 1 + EDGE_BUTTONS;
+
+    public static final byte ACK = 0x01;
+    /** Ack byte followed by the echoed uint32 sequence number. */
+    public static final int ACK_ECHO_BYTES = 5;
+
+    /** Values per sample for a frame with {@code flags}. */
+    public static int valuesPerSample(int flags) {
+        int n = (flags & RAW) != 0 ? 9 : 0;
+        if ((flags & ORIENTATION) != 0) n += (flags & QUATERNION) != 0 ? 4 : 3;
+        return n;
+    }
+
+    /** Fixed-point scale of value {@code i} of a sample in a COMPACT frame with {@code flags}. */
+    public static float lsb(int flags, int i) {
+        if ((flags & RAW) == 0) i += 9;
+        if (i < 3) return ACC_LSB;
+        if (i < 6) return GYR_LSB;
+        if (i < 9) return MAG_LSB;
+        return (flags & QUATERNION) != 0 ? QUAT_LSB : ORI_LSB;
+    }
+
+    /** Writes an ack at the buffer's position, echoing {@code sequence} unless it is negative. */
+    public static void putAck(ByteBuffer dst, long sequence) {
+        dst.put(ACK);
+        if (sequence >= 0) {
+            int s = (int) sequence;
+            dst.put((byte) s).put((byte) (s >>> 8)).put((byte) (s >>> 16)).put((byte) (s >>> 24));
+        }
+    }
+
+    /**
+     * Sequence number echoed by the ack in {@code src[0..length)}, or -1 for a plain ack or
+     * anything that is not an ack. Independent of the buffer's byte order and position.
+     */
+    public static long ackSequence(ByteBuffer src, int length) {
+        if (length < ACK_ECHO_BYTES || src.get(0) != ACK) return -1;
+        return (src.get(1) & 0xFFL) | (src.get(2) & 0xFFL) << 8
+                | (src.get(3) & 0xFFL) << 16 | (src.get(4) & 0xFFL) << 24;
+    }
+}
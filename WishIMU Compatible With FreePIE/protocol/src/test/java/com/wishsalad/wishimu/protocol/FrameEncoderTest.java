@@ -0,0 +1,297 @@
+package com.wishsalad.wishimu.protocol;
+
+import static com.wishsalad.wishimu.protocol.WireFormat.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+/**
+ * Golden frames: the exact bytes ps3pie's plugins/android.js is written against, for every
+ * frame shape the encoder can produce, each decoded back with {@link FrameDecoder}. A change
+ * to any of these byte strings is a wire-format change.
+ */
+public class FrameEncoderTest {
+
+    private static final long TS = 0x0102030405060708L;
+
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final FrameDecoder.Frame frame = new FrameDecoder.Frame();
+    private final ByteBuffer buf = ByteBuffer.allocate(MAX_FRAME_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    /** "00 07 ff" → {0x00, 0x07, 0xff}. */
+    private static byte[] hex(String s) {
+        String[] parts = s.trim().split("\\s+");
+        byte[] b = new byte[parts.length];
+        for (int i = 0; i < parts.length; i++) b[i] = (byte) Integer.parseInt(parts[i], 16);
+        return b;
+    }
+
+    private byte[] encode(int count, boolean batched, int buttons, long timestamp) {
+        buf.clear();
+        encoder.encode(buf, count, batched, buttons, timestamp);
+        return taken();
+    }
+
+    private byte[] encodeButtons(int buttons, long timestamp) {
+        buf.clear();
+        encoder.encodeButtons(buf, buttons, timestamp);
+        return taken();
+    }
+
+    private byte[] taken() {
+        byte[] b = new byte[buf.position()];
+        buf.flip();
+        buf.get(b);
+        return b;
+    }
+
+    private FrameDecoder.Frame decode(FrameDecoder d, byte[] bytes) {
+        assertTrue(d.decode(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), frame));
+        return frame;
+    }
+
+    private static void assertValues(FrameDecoder.Frame f, float delta, float... expected) {
+        assertEquals(expected.length, f.count * f.valuesPerSample);
+        for (int i = 0; i < expected.length; i++) assertEquals("value " + i, expected[i], f.values[i], delta);
+    }
+
+    @Test
+    public void legacyFrameIs51Bytes() {
+        encoder.configure(0, RAW | ORIENTATION | BUTTONS, false);
+        encoder.setSample(0, new float[] { 1f, 2f, 0.5f }, new float[] { 0f, -1f, 0.25f },
+                new float[] { -2f, 0f, 1f }, new float[] { 0.5f, -0.5f, 2f });
+        byte[] bytes = encode(1, false, 0x05, TS);
+        assertArrayEquals(hex("00 07"
+                + " 00 00 80 3f  00 00 00 40  00 00 00 3f"
+                + " 00 00 00 00  00 00 80 bf  00 00 80 3e"
+                + " 00 00 00 c0  00 00 00 00  00 00 80 3f"
+                + " 00 00 00 3f  00 00 00 bf  00 00 00 40"
+                + " 05"), bytes);
+        assertEquals(51, bytes.length);
+
+        FrameDecoder.Frame f = decode(decoder, bytes);
+        assertEquals(0, f.deviceIndex);
+        assertEquals(RAW | ORIENTATION | BUTTONS, f.flags);
+        assertEquals(1, f.count);
+        assertEquals(12, f.valuesPerSample);
+        assertEquals(-1, f.compactHeader);
+        assertEquals(0x05, f.buttons);
+        assertEquals(-1, f.sequence);
+        assertEquals(0, f.edgeCount);
+        assertValues(f, 0f, 1f, 2f, 0.5f, 0f, -1f, 0.25f, -2f, 0f, 1f, 0.5f, -0.5f, 2f);
+    }
+
+    @Test
+    public void batchFrameCarriesCountAndSamplesInOrder() {
+        encoder.configure(1, ORIENTATION, false);
+        encoder.setSample(0, null, null, null, new float[] { 0.5f, -0.5f, 2f });
+        encoder.setSample(1, null, null, null, new float[] { 1f, 0f, -1f });
+        byte[] bytes = encode(2, true, 0, TS);
+        assertArrayEquals(hex("01 0a 02"
+                + " 00 00 00 3f  00 00 00 bf  00 00 00 40"
+                + " 00 00 80 3f  00 00 00 00  00 00 80 bf"), bytes);
+
+        FrameDecoder.Frame f = decode(decoder, bytes);
+        assertEquals(1, f.deviceIndex);
+        assertEquals(ORIENTATION | BATCH, f.flags);
+        assertEquals(2, f.count);
+        assertEquals(-1, f.buttons);
+        assertValues(f, 0f, 0.5f, -0.5f, 2f, 1f, 0f, -1f);
+        assertEquals(1f, f.value(1, 0), 0f);
+    }
+
+    @Test
+    public void sequenceTrailerFollowsButtonsAndCounts() {
+        encoder.configure(0, ORIENTATION | BUTTONS | SEQUENCE, false);
+        float[] ori = { 1f, 0f, 0.5f };
+        encoder.setSample(0, null, null, null, ori);
+        byte[] first = encode(1, false, 0, TS);
+        encoder.setSample(0, null, null, null, ori);
+        byte[] second = encode(1, false, 0, TS + 1);
+        assertArrayEquals(hex("00 16  00 00 80 3f  00 00 00 00  00 00 00 3f  00"
+                + "  00 00 00 00  08 07 06 05 04 03 02 01"), first);
+        assertArrayEquals(hex("00 16  00 00 80 3f  00 00 00 00  00 00 00 3f  00"
+                + "  01 00 00 00  09 07 06 05 04 03 02 01"), second);
+        assertEquals(1, encoder.lastSequence());
+
+        FrameDecoder.Frame f = decode(decoder, second);
+        assertEquals(0, f.buttons);
+        assertEquals(1, f.sequence);
+        assertEquals(TS + 1, f.timestamp);
+        assertValues(f, 0f, 1f, 0f, 0.5f);
+    }
+
+    @Test
+    public void compactKeyframeThenDeltas() {
+        encoder.configure(0, ORIENTATION | COMPACT, true);
+        encoder.setSample(0, null, null, null, new float[] { 0.5f, -0.25f, 1f });
+        byte[] key0 = encode(1, false, 0, TS);
+        encoder.setSample(0, null, null, null, new float[] { 0.501f, -0.25f, 0.9999f });
+        byte[] delta0 = encode(1, false, 0, TS);
+        // 10000 - 5000 does not fit in an int8: a new keyframe, id 1.
+        encoder.setSample(0, null, null, null, new float[] { 1f, -0.25f, 1f });
+        byte[] key1 = encode(1, false, 0, TS);
+        encoder.setSample(0, null, null, null, new float[] { 0.9999f, -0.25f, 1f });
+        byte[] delta1 = encode(1, false, 0, TS);
+
+        assertArrayEquals(hex("00 22 00  88 13  3c f6  10 27"), key0);
+        assertArrayEquals(hex("00 22 80  0a 00 ff"), delta0);
+        assertArrayEquals(hex("00 22 01  10 27  3c f6  10 27"), key1);
+        assertArrayEquals(hex("00 22 81  ff 00 00"), delta1);
+
+        FrameDecoder.Frame f = decode(decoder, key0);
+        assertEquals(0x00, f.compactHeader);
+        assertFalse(f.skipped);
+        assertValues(f, 0f, 0.5f, -0.25f, 1f);
+        f = decode(decoder, delta0);
+        assertEquals(0x80, f.compactHeader);
+        assertFalse(f.skipped);
+        assertValues(f, 1e-6f, 0.501f, -0.25f, 0.9999f);
+        f = decode(decoder, key1);
+        assertValues(f, 0f, 1f, -0.25f, 1f);
+        f = decode(decoder, delta1);
+        assertValues(f, 1e-6f, 0.9999f, -0.25f, 1f);
+    }
+
+    @Test
+    public void deltaAfterLostKeyframeIsSkippedUntilTheNextKeyframe() {
+        // A receiver that missed key0 of compactKeyframeThenDeltas.
+        FrameDecoder.Frame f = decode(decoder, hex("00 22 80  0a 00 ff"));
+        assertTrue(f.skipped);
+        f = decode(decoder, hex("00 22 01  10 27  3c f6  10 27"));
+        assertFalse(f.skipped);
+        assertValues(f, 0f, 1f, -0.25f, 1f);
+        f = decode(decoder, hex("00 22 81  ff 00 00"));
+        assertFalse(f.skipped);
+        assertValues(f, 1e-6f, 0.9999f, -0.25f, 1f);
+        // A late delta against the lost keyframe still cannot be applied.
+        f = decode(decoder, hex("00 22 80  0a 00 ff"));
+        assertTrue(f.skipped);
+    }
+
+    @Test
+    public void resetForcesKeyframeButKeepsSequence() {
+        encoder.configure(0, ORIENTATION | SEQUENCE | COMPACT, true);
+        float[] ori = { 0f, 0f, 0f };
+        encoder.setSample(0, null, null, null, ori);
+        assertEquals(0x00, encode(1, false, 0, TS)[2]);
+        encoder.setSample(0, null, null, null, ori);
+        assertEquals((byte) 0x80, encode(1, false, 0, TS)[2]);
+        encoder.reset();
+        encoder.setSample(0, null, null, null, ori);
+        byte[] bytes = encode(1, false, 0, TS);
+        assertArrayEquals(hex("00 32 00  00 00 00 00 00 00  02 00 00 00  08 07 06 05 04 03 02 01"), bytes);
+    }
+
+    @Test
+    public void quaternionFrame() {
+        encoder.configure(0, ORIENTATION | QUATERNION, false);
+        encoder.setSample(0, null, null, null, new float[] { 0.5f, -0.5f, 0.5f, 0.5f });
+        byte[] bytes = encode(1, false, 0, TS);
+        assertArrayEquals(hex("00 42  00 00 00 3f  00 00 00 bf  00 00 00 3f  00 00 00 3f"), bytes);
+
+        FrameDecoder.Frame f = decode(decoder, bytes);
+        assertEquals(4, f.valuesPerSample);
+        assertValues(f, 0f, 0.5f, -0.5f, 0.5f, 0.5f);
+    }
+
+    @Test
+    public void compactQuaternionUsesUnitScale() {
+        encoder.configure(0, ORIENTATION | QUATERNION | COMPACT, false);
+        encoder.setSample(0, null, null, null, new float[] { 0.5f, -0.5f, 1f, 0f });
+        byte[] bytes = encode(1, false, 0, TS);
+        // 0.5 * 32767 = 16383.5 rounds half up: 16384 and -16383.
+        assertArrayEquals(hex("00 62 00  00 40  01 c0  ff 7f  00 00"), bytes);
+
+        FrameDecoder.Frame f = decode(decoder, bytes);
+        assertValues(f, 1f / QUAT_LSB, 0.5f, -0.5f, 1f, 0f);
+    }
+
+    @Test
+    public void quaternionNeedsOrientation() {
+        encoder.configure(0, RAW | QUATERNION, false);
+        assertEquals(RAW, encoder.flags());
+    }
+
+    @Test
+    public void buttonOnlyFrame() {
+        encoder.configure(3, ORIENTATION | BUTTONS | SEQUENCE, false);
+        encoder.setSample(0, null, null, null, new float[] { 0f, 0f, 0f });
+        encode(1, false, 0, TS);
+        byte[] bytes = encodeButtons(0x02, 0x10);
+        assertArrayEquals(hex("03 14 02  01 00 00 00  10 00 00 00 00 00 00 00"), bytes);
+
+        FrameDecoder.Frame f = decode(decoder, bytes);
+        assertEquals(3, f.deviceIndex);
+        assertEquals(BUTTONS | SEQUENCE, f.flags);
+        assertEquals(0, f.valuesPerSample);
+        assertEquals(0x02, f.buttons);
+        assertEquals(1, f.sequence);
+        assertEquals(0x10, f.timestamp);
+
+        encoder.configure(3, ORIENTATION | BUTTONS, false);
+        assertArrayEquals(hex("03 04 01"), encodeButtons(0x01, 0));
+    }
+
+    @Test
+    public void buttonOnlyFrameLeavesKeyframeAlone() {
+        encoder.configure(0, ORIENTATION | BUTTONS | COMPACT, true);
+        float[] ori = { 0f, 0f, 0f };
+        encoder.setSample(0, null, null, null, ori);
+        assertArrayEquals(hex("00 26 00  00 00 00 00 00 00  00"), encode(1, false, 0, TS));
+        assertArrayEquals(hex("00 04 01"), encodeButtons(0x01, TS));
+        encoder.setSample(0, null, null, null, ori);
+        assertArrayEquals(hex("00 26 80  00 00 00  01"), encode(1, false, 0x01, TS));
+    }
+
+    @Test
+    public void edgeCountersEndTheFrame() {
+        encoder.configure(0, ORIENTATION | BUTTONS | SEQUENCE | EDGES, false);
+        encoder.setSample(0, null, null, null, new float[] { 0f, 0f, 0f });
+        // Button 0 down after 3 transitions, button 1 up after 2, button 2 after 255.
+        byte[] bytes = encode(1, false, 0x01 | 3 << 8 | 2 << 16 | 0xFF << 24, 7);
+        assertArrayEquals(hex("00 96  00 00 00 00  00 00 00 00  00 00 00 00  01"
+                + "  00 00 00 00  07 00 00 00 00 00 00 00  03  03 02 ff"), bytes);
+
+        FrameDecoder.Frame f = decode(decoder, bytes);
+        assertEquals(0x01, f.buttons);
+        assertEquals(3, f.edgeCount);
+        assertEquals(3, f.edges[0]);
+        assertEquals(2, f.edges[1]);
+        assertEquals(255, f.edges[2]);
+
+        // Button 0 released, button 2 pressed again: its counter wraps to 0.
+        bytes = encodeButtons(0x04 | 4 << 8 | 2 << 16, 8);
+        assertArrayEquals(hex("00 94 04  01 00 00 00  08 00 00 00 00 00 00 00  03  04 02 00"), bytes);
+
+        f = decode(decoder, bytes);
+        assertEquals(BUTTONS | SEQUENCE | EDGES, f.flags);
+        assertEquals(0x04, f.buttons);
+        assertEquals(3, f.edgeCount);
+        assertEquals(4, f.edges[0]);
+        assertEquals(0, f.edges[2]);
+    }
+
+    @Test
+    public void edgesNeedButtons() {
+        encoder.configure(0, ORIENTATION | EDGES, false);
+        assertEquals(ORIENTATION, encoder.flags());
+    }
+
+    @Test
+    public void truncatedFramesAreRejected() {
+        byte[] legacy = hex("00 06  00 00 80 3f  00 00 00 00  00 00 00 3f  00");
+        for (int n = 0; n < legacy.length; n++) {
+            ByteBuffer src = ByteBuffer.wrap(legacy, 0, n).order(ByteOrder.LITTLE_ENDIAN);
+            assertFalse("length " + n, decoder.decode(src, frame));
+        }
+        assertFalse(decoder.decode(ByteBuffer.wrap(hex("00 0a 00")).order(ByteOrder.LITTLE_ENDIAN), frame));
+    }
+}
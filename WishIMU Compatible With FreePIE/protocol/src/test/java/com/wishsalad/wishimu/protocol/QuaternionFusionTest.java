@@ -0,0 +1,183 @@
+package com.wishsalad.wishimu.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+/**
+ * Drives both fusion filters with synthetic readings of a known pose: gravity and a
+ * northern-hemisphere magnetic field in Android's east-north-up world frame, seen through
+ * the device-to-world rotation R as the sensors would report them, and body rates as the
+ * gyroscope would. The filters run with the gains the service uses.
+ */
+@RunWith(Parameterized.class)
+public class QuaternionFusionTest {
+
+    private static final float G = 9.81f;
+    /** World field in µT: 20 north, 40 down. */
+    private static final double[] FIELD = { 0, 20, -40 };
+    private static final float DT = 0.01f;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> filters() {
+        return Arrays.asList(new Object[][] {
+                { "Madgwick", (Supplier<OrientationSource>) () -> new MadgwickFilter(0.1f) },
+                { "Mahony", (Supplier<OrientationSource>) () -> new MahonyFilter(1f, 0.01f) },
+        });
+    }
+
+    private final OrientationSource filter;
+
+    public QuaternionFusionTest(String name, Supplier<OrientationSource> factory) {
+        filter = factory.get();
+    }
+
+    private final float[] acc = new float[3];
+    private final float[] gyr = new float[3];
+    private final float[] mag = new float[3];
+    private final float[] rv = new float[3];
+
+    /** Row-major rotation about the direction of {@code (x, y, z)} by its length in rad. */
+    private static double[] exp(double x, double y, double z) {
+        double a = Math.sqrt(x * x + y * y + z * z);
+        if (a == 0) return new double[] { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+        x /= a; y /= a; z /= a;
+        double c = Math.cos(a), s = Math.sin(a), t = 1 - c;
+        return new double[] {
+                t * x * x + c,     t * x * y - s * z, t * x * z + s * y,
+                t * x * y + s * z, t * y * y + c,     t * y * z - s * x,
+                t * x * z - s * y, t * y * z + s * x, t * z * z + c };
+    }
+
+    private static double[] mul(double[] a, double[] b) {
+        double[] r = new double[9];
+        for (int i = 0; i < 3; i++)
+            for (int j = 0; j < 3; j++)
+                for (int k = 0; k < 3; k++) r[3 * i + j] += a[3 * i + k] * b[3 * k + j];
+        return r;
+    }
+
+    /** out = Rᵀ w: a world vector in device coordinates. */
+    private static void toDevice(double[] R, double[] w, float[] out) {
+        for (int i = 0; i < 3; i++) out[i] = (float) (R[i] * w[0] + R[3 + i] * w[1] + R[6 + i] * w[2]);
+    }
+
+    /** Sensor readings of a device held still at pose R. */
+    private void still(double[] R) {
+        toDevice(R, new double[] { 0, 0, G }, acc);
+        toDevice(R, FIELD, mag);
+        gyr[0] = gyr[1] = gyr[2] = 0f;
+    }
+
+    /** Angle in degrees between the filter's estimate, read as a rotation vector, and R. */
+    private double errorDegrees(double[] R) {
+        filter.getRotationVector(rv);
+        float[] est = new float[9];
+        RotationMath.getRotationMatrixFromVector(est, rv);
+        double trace = 0;
+        for (int i = 0; i < 9; i++) trace += est[i] * R[i];   // trace(estᵀ R)
+        return Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, (trace - 1) / 2))));
+    }
+
+    @Test
+    public void staticDeviceConvergesToGravityAndNorth() {
+        double[] truth = mul(exp(0, 0, 0.8), exp(0.5, -0.3, 0));
+        // Seed from a reading 35° off, then hold the true pose for 30 s.
+        still(mul(truth, exp(0.4, 0.2, 0.4)));
+        filter.update(gyr, acc, mag, 0f);
+        assertTrue(errorDegrees(truth) > 30);
+        still(truth);
+        for (int i = 0; i < 3000; i++) filter.update(gyr, acc, mag, DT);
+        assertEquals(0, errorDegrees(truth), 1.0);
+
+        // Gravity comes out up and the horizontal field north.
+        filter.getRotationVector(rv);
+        float[] R = new float[9];
+        RotationMath.getRotationMatrixFromVector(R, rv);
+        float upZ = (R[6] * acc[0] + R[7] * acc[1] + R[8] * acc[2]) / G;
+        float east = R[0] * mag[0] + R[1] * mag[1] + R[2] * mag[2];
+        float north = R[3] * mag[0] + R[4] * mag[1] + R[5] * mag[2];
+        assertEquals(1f, upZ, 0.001f);
+        assertEquals(0f, (float) Math.toDegrees(Math.atan2(east, north)), 1f);
+    }
+
+    @Test
+    public void yawRateIntegratesWithoutMagnetometer() {
+        // Flat, screen up; without a field the filter takes device y as north, so R0 = I.
+        double w = 0.5;
+        still(exp(0, 0, 0));
+        mag[0] = mag[1] = mag[2] = 0f;
+        filter.update(gyr, acc, mag, 0f);
+        gyr[2] = (float) w;
+        int steps = 400;   // 4 s, 2 rad
+        for (int i = 0; i < steps; i++) filter.update(gyr, acc, mag, DT);
+        assertEquals(0, errorDegrees(exp(0, 0, w * steps * DT)), 2.0);
+    }
+
+    @Test
+    public void constantRateRotationTracksIntegratedAngle() {
+        double[] r0 = exp(0.2, 0.1, 1.0);
+        double wx = 0.3, wy = -0.2, wz = 0.4;
+        still(r0);
+        filter.update(gyr, acc, mag, 0f);
+        int steps = 300;   // 3 s, ~0.78 rad about a fixed body axis
+        for (int i = 1; i <= steps; i++) {
+            double t = i * DT;
+            double[] truth = mul(r0, exp(wx * t, wy * t, wz * t));
+            still(truth);
+            gyr[0] = (float) wx; gyr[1] = (float) wy; gyr[2] = (float) wz;
+            filter.update(gyr, acc, mag, DT);
+        }
+        double total = Math.sqrt(wx * wx + wy * wy + wz * wz) * steps * DT;
+        assertTrue(Math.toDegrees(total) > 40);
+        assertEquals(0, errorDegrees(mul(r0, exp(wx * steps * DT, wy * steps * DT, wz * steps * DT))), 3.0);
+    }
+
+    @Test
+    public void rotationVectorMatchesPlatformConvention() {
+        Random random = new Random(42);
+        float[] R = new float[9];
+        for (int n = 0; n < 500; n++) {
+            // A random unit quaternion with w well away from 0, so its sign is unambiguous.
+            double qw, qx, qy, qz, norm;
+            do {
+                qw = random.nextGaussian(); qx = random.nextGaussian();
+                qy = random.nextGaussian(); qz = random.nextGaussian();
+                norm = Math.sqrt(qw * qw + qx * qx + qy * qy + qz * qz);
+                if (qw < 0) norm = -norm;
+            } while (Math.abs(qw / norm) < 0.05);
+            float[] expected = { (float) (qx / norm), (float) (qy / norm), (float) (qz / norm) };
+
+            // The matrix SensorManager builds from that TYPE_ROTATION_VECTOR value.
+            RotationMath.getRotationMatrixFromVector(R, expected);
+            double[] truth = new double[9];
+            for (int i = 0; i < 9; i++) truth[i] = R[i];
+
+            filter.reset();
+            still(truth);
+            filter.update(gyr, acc, mag, 0f);
+            filter.getRotationVector(rv);
+            assertTrue(rv[0] * rv[0] + rv[1] * rv[1] + rv[2] * rv[2] <= 1.0001f);
+            for (int i = 0; i < 3; i++) assertEquals("pose " + n + " component " + i, expected[i], rv[i], 1e-3f);
+        }
+    }
+
+    @Test
+    public void resetReseedsFromTheNextReading() {
+        still(exp(0.3, 0, 0));
+        filter.update(gyr, acc, mag, 0f);
+        double[] other = exp(0, -0.6, 1.2);
+        filter.reset();
+        still(other);
+        filter.update(gyr, acc, mag, 0f);
+        assertEquals(0, errorDegrees(other), 0.1);
+    }
+}
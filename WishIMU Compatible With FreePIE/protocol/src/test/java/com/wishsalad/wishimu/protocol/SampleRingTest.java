@@ -0,0 +1,84 @@
+package com.wishsalad.wishimu.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SampleRingTest {
+
+    private static SensorSample sample(long timestamp) {
+        SensorSample s = new SensorSample();
+        s.timestamp = timestamp;
+        s.acc[0] = timestamp;
+        return s;
+    }
+
+    @Test
+    public void drainLatestReturnsNewestAndReleasesAll() {
+        SampleRing ring = new SampleRing(8);
+        for (long t = 1; t <= 3; t++) assertTrue(ring.offer(sample(t)));
+        SensorSample dst = new SensorSample();
+        assertEquals(3, ring.drainLatest(dst));
+        assertEquals(3, dst.timestamp);
+        assertEquals(3f, dst.acc[0], 0f);
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.drainLatest(dst));
+        assertEquals(3, dst.timestamp);
+    }
+
+    @Test
+    public void fullRingDiscardsOldestSoLatestIsFresh() {
+        SampleRing ring = new SampleRing(4);
+        for (long t = 1; t <= 4; t++) assertTrue(ring.offer(sample(t)));
+        assertFalse(ring.offer(sample(5)));
+        assertFalse(ring.offer(sample(6)));
+        assertEquals(2, ring.dropped());
+        assertEquals(4, ring.size());
+        SensorSample dst = new SensorSample();
+        assertEquals(4, ring.drainLatest(dst));
+        assertEquals(6, dst.timestamp);
+    }
+
+    @Test
+    public void drainToKeepsOrderAfterOverflow() {
+        SampleRing ring = new SampleRing(4);
+        for (long t = 1; t <= 7; t++) ring.offer(sample(t));
+        SensorSample[] batch = new SensorSample[8];
+        for (int i = 0; i < batch.length; i++) batch[i] = new SensorSample();
+        assertEquals(4, ring.size());
+        assertEquals(3, ring.drainTo(batch, 3));
+        assertEquals(4, batch[0].timestamp);
+        assertEquals(5, batch[1].timestamp);
+        assertEquals(6, batch[2].timestamp);
+        assertEquals(1, ring.drainTo(batch, 3));
+        assertEquals(7, batch[0].timestamp);
+        assertEquals(0, ring.drainTo(batch, 3));
+    }
+
+    @Test
+    public void concurrentProducerNeverHidesTheNewestSample() throws InterruptedException {
+        final SampleRing ring = new SampleRing(4);
+        final long last = 200_000;
+        Thread producer = new Thread(() -> {
+            SensorSample s = new SensorSample();
+            for (long t = 1; t <= last; t++) {
+                s.timestamp = t;
+                s.acc[0] = s.acc[1] = s.acc[2] = t;
+                ring.offer(s);
+            }
+        });
+        producer.start();
+        SensorSample dst = new SensorSample();
+        long seen = 0;
+        while (producer.isAlive() || ring.size() > 0) {
+            if (ring.drainLatest(dst) == 0) continue;
+            assertTrue("went backwards: " + dst.timestamp + " after " + seen, dst.timestamp > seen);
+            assertEquals("torn sample", (float) dst.timestamp, dst.acc[2], 0f);
+            seen = dst.timestamp;
+        }
+        producer.join();
+        assertEquals(last, seen);
+    }
+}
@@ -0,0 +1,189 @@
+package com.wishsalad.wishimu.tools;
+
+import com.wishsalad.wishimu.protocol.LatencyHistogram;
+import com.wishsalad.wishimu.protocol.RttTracker;
+import com.wishsalad.wishimu.protocol.WireFormat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A room full of phones: up to 16 emulated WishIMUs, one per device index, each with its
+ * own socket, ack reader, sensor rate, wire format and synthetic motion, all sending to one
+ * receiver at once. Every frame carries the sequence trailer so each phone measures its own
+ * ack round trip and loss, reported per phone at a fixed interval and at the end.
+ *
+ * Rates and formats are comma-separated lists handed out to the phones in turn, so
+ * "--rate 100,200,400" gives phones 0, 3, 6... 100 Hz, phones 1, 4, 7... 200 Hz and so on.
+ */
+public final class LoadGen {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: loadgen [options]",
+            "  --host HOST        receiver address (127.0.0.1)",
+            "  --port N           receiver port (" + WireFormat.DEFAULT_PORT + ")",
+            "  --phones N         emulated phones 1-16, device indices 0..N-1 (16)",
+            "  --rate HZ,...      sensor rate per phone, cycled over the phones (200)",
+            "  --format F,...     float, compact or delta per phone, cycled (float)",
+            "  --batch N          samples per datagram (1)",
+            "  --quaternion       orientation as a w/x/y/z quaternion",
+            "  --seconds S        run time, 0 = until interrupted (30)",
+            "  --interval S       seconds between per-phone reports (5)");
+
+    private LoadGen() {}
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String host = "127.0.0.1";
+        String[] rates = {"200"}, formats = {"float"};
+        int port = WireFormat.DEFAULT_PORT, phones = 16, batch = 1;
+        double seconds = 30, interval = 5;
+        boolean quaternion = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--host":       host = args[++i]; break;
+                    case "--port":       port = Integer.parseInt(args[++i]); break;
+                    case "--phones":     phones = Integer.parseInt(args[++i]); break;
+                    case "--rate":       rates = args[++i].split(","); break;
+                    case "--format":     formats = args[++i].split(","); break;
+                    case "--batch":      batch = Integer.parseInt(args[++i]); break;
+                    case "--quaternion": quaternion = true; break;
+                    case "--seconds":    seconds = Double.parseDouble(args[++i]); break;
+                    case "--interval":   interval = Double.parseDouble(args[++i]); break;
+                    case "-h": case "--help": System.out.println(USAGE); return;
+                    default: throw new IllegalArgumentException(args[i]);
+                }
+            }
+            if (phones < 1 || phones > 16 || interval <= 0 || seconds < 0) throw new IllegalArgumentException();
+            for (String r : rates) if (Integer.parseInt(r) <= 0) throw new IllegalArgumentException(r);
+            for (String f : formats) {
+                if (!(f.equals("float") || f.equals("compact") || f.equals("delta"))) throw new IllegalArgumentException(f);
+            }
+        } catch (RuntimeException e) {
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        final InetSocketAddress target = new InetSocketAddress(host, port);
+        final long start = System.nanoTime();
+        final long end = seconds > 0 ? start + (long) (seconds * 1e9) : Long.MAX_VALUE;
+        final Phone[] all = new Phone[phones];
+        for (int i = 0; i < phones; i++) {
+            int rate = Integer.parseInt(rates[i % rates.length]);
+            String format = formats[i % formats.length];
+            int flags = WireFormat.RAW | WireFormat.ORIENTATION | WireFormat.SEQUENCE
+                    | (quaternion ? WireFormat.QUATERNION : 0)
+                    | (!format.equals("float") ? WireFormat.COMPACT : 0);
+            VirtualSender sender = new VirtualSender(target, i, flags, format.equals("delta"), batch);
+            // Each phone waves at its own pace, and their clocks are not in step: phone i
+            // starts i/N of a sample period after phone 0.
+            MotionSource motion = new SyntheticMotion(rate, 0, 0.3 + 0.07 * i, 2 * Math.PI * i / phones);
+            all[i] = new Phone(i, rate, format, sender, motion,
+                    start + 1_000_000_000L / rate * i / phones, end);
+        }
+        System.out.printf(Locale.ROOT, "%d phones -> %s:%d%n", phones, host, port);
+        for (Phone p : all) p.start();
+
+        final long step = (long) (interval * 1e9);
+        long nextReport = start + step;
+        while (System.nanoTime() - end < 0) {
+            Replay.waitUntil(Math.min(nextReport, end));
+            if (System.nanoTime() - nextReport >= 0) {
+                report(all, (System.nanoTime() - start) / 1e9, false);
+                nextReport += step;
+            }
+        }
+        for (Phone p : all) p.join();
+        LockSupport.parkNanos(500_000_000L);      // let the last acks in
+        report(all, (System.nanoTime() - start) / 1e9, true);
+        for (Phone p : all) p.sender.close();
+    }
+
+    /**
+     * Prints one line per phone: packets and acks per second, loss, and RTT over the
+     * interval since the last report, or over the whole run when {@code total}.
+     */
+    private static void report(Phone[] all, double t, boolean total) {
+        System.out.printf(Locale.ROOT, "%n%s at %.1f s%n", total ? "Total" : "Interval", t);
+        System.out.println("idx    Hz  format   sent/s   acked/s   loss%  srtt ms  min ms  p50 ms  p99 ms  reord  errors");
+        long sumSent = 0, sumAcked = 0;
+        double sumRate = 0;
+        for (Phone p : all) {
+            RttTracker rtt = p.sender.rtt();
+            long sent = rtt.sent(), acked = rtt.acked();
+            rtt.histogram().copyTo(p.histogram);
+            long[] base = total ? null : p.lastHistogram;
+            long dSent = sent - (total ? 0 : p.lastSent), dAcked = acked - (total ? 0 : p.lastAcked);
+            long now = Math.min(System.nanoTime(), p.endNanos);
+            double span = (now - (total ? p.startNanos : p.lastReport)) / 1e9;
+            System.out.printf(Locale.ROOT, "%3d %5d  %-7s %7.0f %9.0f %7.2f %8.2f %7.2f %7s %7s %6d %7d%n",
+                    p.index, p.rate, p.format, dSent / span, dAcked / span,
+                    dSent > 0 ? Math.max(0, 100.0 * (dSent - dAcked) / dSent) : 0.0,
+                    rtt.smoothedNanos() / 1e6, rtt.minNanos() / 1e6,
+                    millis(LatencyHistogram.percentile(p.histogram, base, 0.50)),
+                    millis(LatencyHistogram.percentile(p.histogram, base, 0.99)),
+                    rtt.reordered(), p.sender.sendErrors());
+            sumSent += dSent;
+            sumAcked += dAcked;
+            sumRate += dSent / span;
+
+            p.lastSent = sent;
+            p.lastAcked = acked;
+            p.lastReport = now;
+            System.arraycopy(p.histogram, 0, p.lastHistogram, 0, LatencyHistogram.BUCKETS);
+        }
+        System.out.printf(Locale.ROOT, "all %5s  %-7s %7.0f %9s %7.2f%n", "", "",
+                sumRate, "", sumSent > 0 ? Math.max(0, 100.0 * (sumSent - sumAcked) / sumSent) : 0.0);
+    }
+
+    private static String millis(long micros) {
+        return micros < 0 ? "-" : String.format(Locale.ROOT, "%.2f", micros / 1e3);
+    }
+
+    /** One emulated phone: a sender thread pacing its motion source by sensor time. */
+    private static final class Phone extends Thread {
+        final int index, rate;
+        final String format;
+        final VirtualSender sender;
+        final long startNanos, endNanos;
+        private final MotionSource motion;
+
+        // Reporting state, main thread only.
+        final long[] histogram = new long[LatencyHistogram.BUCKETS];
+        final long[] lastHistogram = new long[LatencyHistogram.BUCKETS];
+        long lastSent, lastAcked, lastReport;
+
+        Phone(int index, int rate, String format, VirtualSender sender, MotionSource motion,
+              long startNanos, long endNanos) {
+            super("phone-" + index);
+            this.index = index;
+            this.rate = rate;
+            this.format = format;
+            this.sender = sender;
+            this.motion = motion;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+            this.lastReport = startNanos;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            final Sample s = new Sample();
+            try {
+                while (motion.next(s)) {
+                    long due = startNanos + s.timestamp;
+                    if (due - endNanos >= 0) break;
+                    Replay.waitUntil(due);
+                    sender.send(s, 0);
+                }
+                sender.flush(0);
+            } catch (IOException e) {
+                System.err.println(getName() + ": " + e);
+            }
+        }
+    }
+}
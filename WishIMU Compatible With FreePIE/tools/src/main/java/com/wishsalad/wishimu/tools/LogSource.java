@@ -0,0 +1,57 @@
+package com.wishsalad.wishimu.tools;
+
+import com.wishsalad.wishimu.protocol.SensorLog;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Replays a sensor log recorded by the app's record mode. The file is memory-mapped, so
+ * even long sessions cost no heap and no read() calls. Like the sender in its default
+ * per-event mode, every event of a sensor the app streams yields one sample; other sensor
+ * types in the log are skipped.
+ */
+final class LogSource implements MotionSource {
+
+    private final MappedByteBuffer log;
+    private final SensorLog.Record record = new SensorLog.Record();
+    private SensorLog.Reader reader;
+
+    LogSource(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file)) {
+            log = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        reader = new SensorLog.Reader(log);
+    }
+
+    @Override
+    public boolean next(Sample s) {
+        final SensorLog.Record r = record;
+        while (reader.next(r)) {
+            final float[] dst;
+            switch (r.type) {
+                case SensorLog.TYPE_ACCELEROMETER:   dst = s.acc; break;
+                case SensorLog.TYPE_GYROSCOPE:       dst = s.gyr; break;
+                case SensorLog.TYPE_MAGNETIC_FIELD:  dst = s.mag; break;
+                case SensorLog.TYPE_ROTATION_VECTOR: dst = s.rot; break;
+                default: continue;
+            }
+            if (r.count < 3) continue;
+            System.arraycopy(r.values, 0, dst, 0, 3);
+            s.timestamp = r.timestamp;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void rewind() {
+        try {
+            reader = new SensorLog.Reader(log);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);   // the header was valid a moment ago
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.wishsalad.wishimu.tools;
+
+/** A stream of sensor samples to send, recorded or generated. */
+interface MotionSource {
+
+    /**
+     * Advances to the next sample and writes it into {@code s}, which holds the previous one
+     * so sources may update only what changed. Returns false at the end of the stream.
+     * Timestamps never decrease until the next rewind().
+     */
+    boolean next(Sample s);
+
+    /** Starts the stream over; next() then returns the first sample again. */
+    void rewind();
+}
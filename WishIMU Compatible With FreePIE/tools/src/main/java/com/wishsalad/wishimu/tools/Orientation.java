@@ -0,0 +1,34 @@
+package com.wishsalad.wishimu.tools;
+
+import com.wishsalad.wishimu.protocol.RotationMath;
+
+/**
+ * The orientation the app puts in a frame, chosen the way the sender's computeOrientation()
+ * does: from the rotation vector when there is one, otherwise from accelerometer +
+ * magnetometer. The arithmetic is the protocol module's RotationMath, the same as AOSP's
+ * SensorManager helpers, so replayed frames match the phone's.
+ */
+final class Orientation {
+
+    private final float[] r = new float[9];
+
+    /**
+     * Writes yaw/pitch/roll, or w/x/y/z when {@code quaternion}, into {@code out}. Leaves
+     * {@code out} as it was when there is no rotation vector and acc + mag give no
+     * rotation (free fall), as the sender keeps the previous orientation.
+     */
+    void compute(Sample s, boolean quaternion, float[] out) {
+        final float[] rv = s.rot;
+        if (rv[0] != 0 || rv[1] != 0 || rv[2] != 0) {
+            if (quaternion) {
+                RotationMath.getQuaternionFromVector(out, rv);
+                return;
+            }
+            RotationMath.getRotationMatrixFromVector(r, rv);
+        } else if (!RotationMath.getRotationMatrix(r, s.acc, s.mag)) {
+            return;
+        }
+        if (quaternion) RotationMath.quaternionFromMatrix(r, out);
+        else RotationMath.getOrientation(r, out);
+    }
+}
@@ -0,0 +1,149 @@
+package com.wishsalad.wishimu.tools;
+
+import com.wishsalad.wishimu.protocol.WireFormat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a sensor log from the app's record mode, or synthetic motion, to a FreePIE/ps3pie
+ * receiver over UDP, framed exactly as WishIMU frames it. Paces by the sensor timestamps in
+ * real time, N times faster, or sends flat out to find the receiver's sustainable packet
+ * rate; the ack count shows how many datagrams it actually processed.
+ */
+public final class Replay {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: replay [options] [LOG]",
+            "  LOG               .wimulog recorded by the app; synthetic motion when omitted",
+            "  --host HOST       receiver address (127.0.0.1)",
+            "  --port N          receiver port (" + WireFormat.DEFAULT_PORT + ")",
+            "  --index N         device index 0-15 (0)",
+            "  --speed X|max     1 = real time (default), 4 = four times faster, max = flat out",
+            "  --loop            start over at the end of the stream",
+            "  --seconds S       synthetic stream length, 0 = endless (10)",
+            "  --rate HZ         synthetic sensor rate (200)",
+            "  --format F        float (default), compact or delta",
+            "  --quaternion      orientation as a w/x/y/z quaternion",
+            "  --sequence        append the sequence & timestamp trailer",
+            "  --batch N         samples per datagram (1)",
+            "  --no-raw          leave out acc/gyr/mag",
+            "  --no-orientation  leave out orientation");
+
+    private Replay() {}
+
+    public static void main(String[] args) throws IOException {
+        String host = "127.0.0.1", log = null, format = "float";
+        int port = WireFormat.DEFAULT_PORT, index = 0, rate = 200, batch = 1;
+        double speed = 1, seconds = 10;
+        boolean loop = false, raw = true, orientation = true, quaternion = false, sequence = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                switch (a) {
+                    case "--host":           host = args[++i]; break;
+                    case "--port":           port = Integer.parseInt(args[++i]); break;
+                    case "--index":          index = Integer.parseInt(args[++i]); break;
+                    case "--speed":          speed = "max".equals(args[++i]) ? 0 : Double.parseDouble(args[i]); break;
+                    case "--loop":           loop = true; break;
+                    case "--seconds":        seconds = Double.parseDouble(args[++i]); break;
+                    case "--rate":           rate = Integer.parseInt(args[++i]); break;
+                    case "--format":         format = args[++i]; break;
+                    case "--quaternion":     quaternion = true; break;
+                    case "--sequence":       sequence = true; break;
+                    case "--batch":          batch = Integer.parseInt(args[++i]); break;
+                    case "--no-raw":         raw = false; break;
+                    case "--no-orientation": orientation = false; break;
+                    case "-h": case "--help": System.out.println(USAGE); return;
+                    default:
+                        if (a.startsWith("-") || log != null) throw new IllegalArgumentException(a);
+                        log = a;
+                }
+            }
+            if (index < 0 || index > 15 || speed < 0 || rate <= 0
+                    || !(format.equals("float") || format.equals("compact") || format.equals("delta"))) {
+                throw new IllegalArgumentException();
+            }
+        } catch (RuntimeException e) {
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        final MotionSource source = log != null
+                ? new LogSource(Paths.get(log))
+                : new SyntheticMotion(rate, seconds, 0.5, 0);
+        final int flags = (raw ? WireFormat.RAW : 0)
+                | (orientation ? WireFormat.ORIENTATION : 0)
+                | (orientation && quaternion ? WireFormat.QUATERNION : 0)
+                | (sequence ? WireFormat.SEQUENCE : 0)
+                | (!format.equals("float") ? WireFormat.COMPACT : 0);
+
+        try (VirtualSender sender = new VirtualSender(new InetSocketAddress(host, port), index,
+                flags, format.equals("delta"), batch)) {
+            System.out.printf(Locale.ROOT, "Replaying %s to %s:%d as android[%d], %s%n",
+                    log != null ? log : "synthetic motion", host, port, index,
+                    speed == 0 ? "flat out" : speed == 1 ? "real time" : speed + "x");
+            run(source, sender, speed, loop);
+        }
+    }
+
+    private static void run(MotionSource source, VirtualSender sender, double speed, boolean loop)
+            throws IOException {
+        final Sample s = new Sample();
+        final long start = System.nanoTime();
+        long base = start, firstTimestamp = Long.MIN_VALUE;
+        long nextReport = start + 1_000_000_000L, lastSent = 0, lastAcks = 0, samples = 0;
+        while (true) {
+            if (!source.next(s)) {
+                if (!loop) break;
+                source.rewind();
+                firstTimestamp = Long.MIN_VALUE;
+                continue;
+            }
+            if (firstTimestamp == Long.MIN_VALUE) {
+                firstTimestamp = s.timestamp;
+                base = System.nanoTime();
+            }
+            if (speed > 0) waitUntil(base + (long) ((s.timestamp - firstTimestamp) / speed));
+            sender.send(s, 0);
+            samples++;
+
+            long now = System.nanoTime();
+            if (now - nextReport >= 0) {
+                long sent = sender.sent(), acks = sender.acks();
+                report((now - start) / 1e9, sent - lastSent, acks - lastAcks, sent);
+                lastSent = sent;
+                lastAcks = acks;
+                nextReport += 1_000_000_000L;
+            }
+        }
+        sender.flush(0);
+        final double elapsed = (System.nanoTime() - start) / 1e9;
+
+        // Give the last acks a moment to arrive before totalling.
+        LockSupport.parkNanos(200_000_000L);
+        long sent = sender.sent(), acks = sender.acks();
+        System.out.printf(Locale.ROOT,
+                "Done: %d samples in %d datagrams over %.2f s (%.0f/s), %d acks (%.1f%% unacked), %d send errors%n",
+                samples, sent, elapsed, sent / elapsed, acks,
+                sent > 0 ? Math.max(0, 100.0 * (sent - acks) / sent) : 0.0, sender.sendErrors());
+    }
+
+    private static void report(double t, long sent, long acks, long total) {
+        System.out.printf(Locale.ROOT, "%7.1f s  %7d pkt/s  %7d ack/s  %5.1f%% unacked  %10d total%n",
+                t, sent, acks, sent > 0 ? Math.max(0, 100.0 * (sent - acks) / sent) : 0.0, total);
+    }
+
+    /** Sleeps most of the way, then spins the last stretch: parkNanos alone overshoots by ~50 µs. */
+    static void waitUntil(long deadline) {
+        long left;
+        while ((left = deadline - System.nanoTime()) > 0) {
+            if (left > 200_000) LockSupport.parkNanos(left - 100_000);
+            else Thread.onSpinWait();
+        }
+    }
+}
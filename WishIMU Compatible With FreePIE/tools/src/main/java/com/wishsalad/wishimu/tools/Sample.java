@@ -0,0 +1,15 @@
+package com.wishsalad.wishimu.tools;
+
+/**
+ * Desktop counterpart of the app's SensorSample: the latest value of every sensor, as the
+ * sender sees it when it encodes a frame.
+ */
+final class Sample {
+    final float[] acc = new float[3];
+    final float[] gyr = new float[3];
+    final float[] mag = new float[3];
+    /** TYPE_ROTATION_VECTOR x, y, z; all zero when the source has none. */
+    final float[] rot = new float[3];
+    /** Event time in ns, on the source's clock. */
+    long timestamp;
+}
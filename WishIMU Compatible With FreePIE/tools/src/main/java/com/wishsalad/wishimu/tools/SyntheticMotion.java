@@ -0,0 +1,88 @@
+package com.wishsalad.wishimu.tools;
+
+/**
+ * Generated hand motion for testing without a recording: the phone sweeps left and right
+ * while nodding, both sinusoidal. Every sensor agrees with the pose: the rotation vector is
+ * the pose itself, the accelerometer sees gravity and the magnetometer a fixed field, both
+ * rotated into the device frame, and the gyroscope reports the body rate between samples.
+ */
+final class SyntheticMotion implements MotionSource {
+
+    private static final double G = 9.81;
+    /** Earth field in µT (east, north, up), roughly mid-latitude. */
+    private static final double FIELD_N = 22, FIELD_U = -40;
+
+    private final long periodNanos;
+    private final long samples;
+    private final double yawAmplitude, pitchAmplitude, frequencyHz, phase;
+    private long index;
+    /** Previous pose, for the gyroscope. */
+    private double pw = 1, px, py, pz;
+
+    /**
+     * @param rateHz       samples per second of sensor time
+     * @param seconds      length of the stream, or 0 for endless
+     * @param frequencyHz  sweep frequency; the nod runs at 0.6 × this
+     * @param phase        radians, so several generators do not move in lockstep
+     */
+    SyntheticMotion(int rateHz, double seconds, double frequencyHz, double phase) {
+        this.periodNanos = 1_000_000_000L / rateHz;
+        this.samples = seconds > 0 ? (long) (seconds * rateHz) : Long.MAX_VALUE;
+        this.yawAmplitude = Math.toRadians(60);
+        this.pitchAmplitude = Math.toRadians(20);
+        this.frequencyHz = frequencyHz;
+        this.phase = phase;
+    }
+
+    @Override
+    public boolean next(Sample s) {
+        if (index >= samples) return false;
+        final double t = index * periodNanos * 1e-9;
+        final double yaw = yawAmplitude * Math.sin(2 * Math.PI * frequencyHz * t + phase);
+        final double pitch = pitchAmplitude * Math.sin(2 * Math.PI * 0.6 * frequencyHz * t + phase);
+
+        // q = yaw about world z, then pitch about device x.
+        double cy = Math.cos(yaw / 2), sy = Math.sin(yaw / 2);
+        double cp = Math.cos(pitch / 2), sp = Math.sin(pitch / 2);
+        double w = cy * cp, x = cy * sp, y = sy * sp, z = sy * cp;
+        s.rot[0] = (float) x;
+        s.rot[1] = (float) y;
+        s.rot[2] = (float) z;
+
+        // World → device is the transpose of R(q); apply it to gravity and the field.
+        rotateInverse(w, x, y, z, 0, 0, G, s.acc);
+        rotateInverse(w, x, y, z, 0, FIELD_N, FIELD_U, s.mag);
+
+        // Body rate from the pose change: ω = 2 · vec(q_prev* ⊗ q) / dt.
+        if (index > 0) {
+            double dt = periodNanos * 1e-9;
+            double rw = pw * w + px * x + py * y + pz * z;
+            double rx = pw * x - px * w - py * z + pz * y;
+            double ry = pw * y + px * z - py * w - pz * x;
+            double rz = pw * z - px * y + py * x - pz * w;
+            double sign = rw < 0 ? -1 : 1;
+            s.gyr[0] = (float) (2 * sign * rx / dt);
+            s.gyr[1] = (float) (2 * sign * ry / dt);
+            s.gyr[2] = (float) (2 * sign * rz / dt);
+        }
+        pw = w; px = x; py = y; pz = z;
+        s.timestamp = index * periodNanos;
+        index++;
+        return true;
+    }
+
+    @Override
+    public void rewind() {
+        index = 0;
+        pw = 1;
+        px = py = pz = 0;
+    }
+
+    /** out = R(q)ᵀ · v */
+    private static void rotateInverse(double w, double x, double y, double z,
+                                      double vx, double vy, double vz, float[] out) {
+        out[0] = (float) ((1 - 2 * (y * y + z * z)) * vx + 2 * (x * y + w * z) * vy + 2 * (x * z - w * y) * vz);
+        out[1] = (float) (2 * (x * y - w * z) * vx + (1 - 2 * (x * x + z * z)) * vy + 2 * (y * z + w * x) * vz);
+        out[2] = (float) (2 * (x * z + w * y) * vx + 2 * (y * z - w * x) * vy + (1 - 2 * (x * x + y * y)) * vz);
+    }
+}
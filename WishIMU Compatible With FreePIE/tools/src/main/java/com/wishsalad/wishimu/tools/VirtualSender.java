@@ -0,0 +1,117 @@
+package com.wishsalad.wishimu.tools;
+
+import com.wishsalad.wishimu.protocol.FrameEncoder;
+import com.wishsalad.wishimu.protocol.RttTracker;
+import com.wishsalad.wishimu.protocol.WireFormat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * One emulated WishIMU: a connected DatagramChannel, the protocol module's FrameEncoder and
+ * an ack reader thread, mirroring UdpSenderService. Samples are encoded exactly as the app
+ * encodes them, including the orientation it derives and, with batchSize > 1, batch frames.
+ * With the SEQUENCE flag, echoed sequence numbers feed the app's RttTracker.
+ *
+ * send() and flush() belong to one thread; the counters may be read from any thread.
+ */
+final class VirtualSender implements Closeable {
+
+    private final DatagramChannel channel;
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(WireFormat.MAX_FRAME_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final Orientation orientation = new Orientation();
+    private final float[] ori = new float[4];
+    private final RttTracker rtt = new RttTracker();
+    private final boolean sequenced;
+    private final boolean quaternion;
+    private final int batchSize;
+    private int staged;
+    private long stagedTimestamp;
+
+    private volatile long sent, sendErrors, acks;
+    private volatile boolean open = true;
+
+    /**
+     * @param flags     WireFormat flags as the app would send them; BUTTONS is always added
+     * @param batchSize samples per datagram, 1 for the legacy single-sample frame
+     */
+    VirtualSender(InetSocketAddress target, int deviceIndex, int flags, boolean compactDelta,
+                  int batchSize) throws IOException {
+        this.quaternion = (flags & WireFormat.QUATERNION) != 0;
+        this.sequenced = (flags & WireFormat.SEQUENCE) != 0;
+        this.batchSize = Math.max(1, Math.min(WireFormat.MAX_BATCH, batchSize));
+        encoder.configure(deviceIndex, flags | WireFormat.BUTTONS, compactDelta);
+        channel = DatagramChannel.open();
+        channel.connect(target);
+        Thread receiver = new Thread(this::receiveAcks, "ack-" + deviceIndex);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /** Queues {@code s}; sends a frame once batchSize samples are staged. */
+    void send(Sample s, int buttons) throws IOException {
+        if ((encoder.flags() & WireFormat.ORIENTATION) != 0) orientation.compute(s, quaternion, ori);
+        encoder.setSample(staged++, s.acc, s.gyr, s.mag, ori);
+        stagedTimestamp = s.timestamp;
+        if (staged >= batchSize) flush(buttons);
+    }
+
+    /** Sends whatever is staged, if anything. */
+    void flush(int buttons) throws IOException {
+        if (staged == 0) return;
+        buf.clear();
+        encoder.encode(buf, staged, batchSize > 1, buttons, stagedTimestamp);
+        staged = 0;
+        buf.flip();
+        if (sequenced) rtt.onSend(encoder.lastSequence(), System.nanoTime());
+        try {
+            channel.write(buf);
+            //noinspection NonAtomicOperationOnVolatileField  single writer
+            sent++;
+        } catch (PortUnreachableException e) {
+            // ICMP from an earlier datagram: nothing is listening (yet). Keep going, like the app.
+            //noinspection NonAtomicOperationOnVolatileField  single writer
+            sendErrors++;
+        }
+    }
+
+    long sent()       { return sent; }
+    long sendErrors() { return sendErrors; }
+    long acks()       { return acks; }
+    /** Round trips of sequenced frames; empty without the SEQUENCE flag. */
+    RttTracker rtt()  { return rtt; }
+
+    private void receiveAcks() {
+        final ByteBuffer ack = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        while (open) {
+            try {
+                ack.clear();
+                int n = channel.read(ack);
+                long now = System.nanoTime();
+                if (n >= 1 && ack.get(0) == WireFormat.ACK) {
+                    //noinspection NonAtomicOperationOnVolatileField  single writer
+                    acks++;
+                    long seq = WireFormat.ackSequence(ack, n);
+                    if (seq >= 0) rtt.onAck((int) seq, now);
+                }
+            } catch (PortUnreachableException ignored) {
+                // Host not up yet.
+            } catch (IOException e) {
+                break;                                  // channel closed
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        channel.close();
+    }
+}
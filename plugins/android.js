@@ -4,7 +4,9 @@
 //
 // Binary Little-Endian protocol, port 5555:
 //   byte  0     : device index (0-15)
-//   byte  1     : flags  (0x01 = SEND_RAW, 0x02 = SEND_ORIENTATION, 0x04 = SEND_BUTTONS)
+//   byte  1     : flags  (0x01 = SEND_RAW, 0x02 = SEND_ORIENTATION, 0x04 = SEND_BUTTONS,
+//                         0x08 = SEND_BATCH, 0x10 = SEND_SEQUENCE, 0x20 = SEND_COMPACT,
+//                         0x40 = SEND_QUATERNION, 0x80 = SEND_EDGES)
 //   bytes 2-37  : raw sensor data (only if flag 0x01)
 //                   floatLE × 3 : acc  (ax, ay, az)   — m/s²
 //                   floatLE × 3 : gyro (gx, gy, gz)   — rad/s
@@ -15,8 +17,42 @@
 //                   floatLE     : roll  (Euler Y) — radians
 //   byte  N     : button bitmask (only if flag 0x04; bit 0 = fire/left-click)
 //
+// Quaternion orientation (WishIMU only, opt-in, flag 0x40 together with 0x02):
+//   the orientation block is floatLE × 4 : w, x, y, z (unit quaternion) instead of
+//   yaw/pitch/roll. yaw/pitch/roll are still derived from it, so scripts need no change.
+//
+// Batch frames (WishIMU only, opt-in, flag 0x08):
+//   byte  2     : sample count C
+//   then C × [raw][orientation] blocks laid out as above, oldest first,
+//   followed by a single button byte. Each sample emits its own 'data' event so
+//   loop() still runs once per sensor sample.
+//
+// Compact frames (WishIMU only, opt-in, flag 0x20):
+//   byte  2     : compact header — bit 7 = delta frame, bits 0-6 = keyframe id
+//   (then the batch count if flag 0x08)
+//   values in the same order as above, as int16LE fixed-point:
+//     acc × 200 (per m/s²), gyro × 900 (per rad/s), mag × 10 (per µT), orientation × 10000 (per rad)
+//     or, with flag 0x40, quaternion × 32767
+//   Delta frames carry int8 differences against the last sample of keyframe <id>;
+//   they are skipped until that keyframe has been received.
+//
+// Sequence trailer (WishIMU only, opt-in, flag 0x10), after the button byte:
+//   uint32LE    : packet sequence number (wraps)
+//   int64LE     : SensorEvent.timestamp of the newest sample — ns, phone boot clock
+// Receivers that stop at the button byte (e.g. FreePIE) are unaffected.
+//
+// Button edge counters (WishIMU only, opt-in, flag 0x80 with 0x04), last in the frame:
+//   uint8       : number of counters N
+//   uint8 × N   : transitions of buttons 0..N-1 so far (wraps at 256)
+// When frames were lost, every press and release in between is replayed from the counters,
+// each with its own 'data' event, so even a click that fell entirely into the gap reaches
+// loop(). Frames whose counters are behind the ones already seen are stale; their button
+// byte is ignored. WishIMU also repeats each edge a few times in button-only frames.
+//
 // Ack (PC → Android, sent after every received packet):
 //   byte  0     : 0x01
+//   bytes 1-4   : uint32LE sequence number of the acked packet — only if it carried
+//                 the sequence trailer (flag 0x10); WishIMU derives RTT and loss from it
 // The WishIMU app uses these acks to detect when the script stops running.
 // The original FreePIE app does not send acks; WishIMU will show "No response"
 // after 5 s but data delivery is unaffected.
@@ -24,10 +60,14 @@
 // Usage in scripts:
 //   const phone = android[0];     // device index 0
 //   phone.yaw, phone.pitch, phone.roll          // orientation (radians)
+//   phone.quat.w, .x, .y, .z                    // orientation quaternion (only if flag 0x40)
 //   phone.raw.ax, .ay, .az                      // accelerometer
 //   phone.raw.gx, .gy, .gz                      // gyroscope
 //   phone.raw.mx, .my, .mz                      // magnetometer
 //   phone.buttons                               // bitmask (bit 0 = fire)
+//   phone.seq, phone.timestamp                  // sequence trailer (0 if not sent)
+//   phone.lost, phone.reordered                 // packets missing / out of order so far
+//   phone.replayedEdges                         // button edges rebuilt from counters (flag 0x80)
 //
 // Official app: "FreePIE IMU sender" (APK at /opt/FreePIE/Lib/Android/)
 // Also compatible with WishIMU (github.com/communitytranslations/ps3pie)
@@ -40,17 +80,46 @@ const DEFAULT_PORT          = 5555;
 const FLAG_SEND_RAW         = 0x01;
 const FLAG_SEND_ORIENTATION = 0x02;
 const FLAG_SEND_BUTTONS     = 0x04;
+const FLAG_SEND_BATCH       = 0x08;
+const FLAG_SEND_SEQUENCE    = 0x10;
+const FLAG_SEND_COMPACT     = 0x20;
+const FLAG_SEND_QUATERNION  = 0x40;
+const FLAG_SEND_EDGES       = 0x80;
+
+// Fixed-point scales of compact frames, in value order: acc ×3, gyro ×3, mag ×3, orientation ×3
+const COMPACT_SCALES = [200, 200, 200, 900, 900, 900, 10, 10, 10, 10000, 10000, 10000];
+const COMPACT_QUAT_SCALE = 32767;
 
 // Bind to localhost by default — prevents any host on the network from injecting
 // orientation data and controlling mouse/joystick movement.
 // Set PS3PIE_BIND_HOST=0.0.0.0 to accept packets from the network (e.g. real phone).
 const BIND_HOST = process.env.PS3PIE_BIND_HOST || '127.0.0.1';
 
+// Number of values in the orientation block: none, yaw/pitch/roll or w/x/y/z.
+function orientationValues(flags) {
+    if (!(flags & FLAG_SEND_ORIENTATION)) return 0;
+    return (flags & FLAG_SEND_QUATERNION) ? 4 : 3;
+}
+
+// Stores a quaternion and the yaw/pitch/roll Android's SensorManager.getOrientation()
+// would report for the same rotation, so scripts written for Euler frames keep working.
+function setQuaternion(dev, w, x, y, z) {
+    dev.quat.w = w; dev.quat.x = x; dev.quat.y = y; dev.quat.z = z;
+    dev.yaw   = Math.atan2(2 * (x * y - w * z), 1 - 2 * (x * x + z * z));
+    dev.pitch = Math.asin(Math.max(-1, Math.min(1, -2 * (y * z + w * x))));
+    dev.roll  = Math.atan2(-2 * (x * z - w * y), 1 - 2 * (x * x + y * y));
+}
+
 function makeDevice() {
     return {
         yaw: 0, pitch: 0, roll: 0,
+        quat: { w: 1, x: 0, y: 0, z: 0 },
         raw: { ax: 0, ay: 0, az: 0, gx: 0, gy: 0, gz: 0, mx: 0, my: 0, mz: 0 },
         buttons: 0,
+        seq: 0, timestamp: 0, lost: 0, reordered: 0, replayedEdges: 0,
+        _seqSeen: false,
+        _edgesSeen: false, _edges: new Uint8Array(8),
+        _keyId: -1, _key: new Int16Array(13),
     };
 }
 
@@ -100,7 +169,142 @@ class AndroidPlugin extends Plugin {
         const dev = this._devices[idx];
 
         let offset = 2;
+        let seq = -1;
+
+        if (flags & (FLAG_SEND_BATCH | FLAG_SEND_COMPACT)) {
+            const compact = (flags & FLAG_SEND_COMPACT) ? msg[offset++] : undefined;
+            const count   = (flags & FLAG_SEND_BATCH)   ? msg[offset++] : 1;
+            const values  = ((flags & FLAG_SEND_RAW) ? 9 : 0) + orientationValues(flags);
+            const width   = compact === undefined ? 4 : (compact & 0x80) ? 1 : 2;
+            const sampleLen = values * width;
+            if (count === undefined || msg.length < offset + count * sampleLen) return;
+            // Buttons trail the samples; apply them first so every sample sees the current state.
+            const btnOffset = offset + count * sampleLen;
+            if ((flags & FLAG_SEND_BUTTONS) && msg.length >= btnOffset + 1) {
+                this._applyButtons(msg, btnOffset, flags, dev);
+            }
+            seq = this._readTrailer(msg, btnOffset + 1, flags, dev);
+            for (let i = 0; i < count; i++) {
+                offset = compact === undefined
+                    ? this._readSample(msg, offset, flags, dev)
+                    : this._readCompactSample(msg, offset, flags, dev, compact, values, i === count - 1);
+                this._emitter.emit('data');
+            }
+        } else {
+            offset = this._readSample(msg, offset, flags, dev);
+
+            if ((flags & FLAG_SEND_BUTTONS) && msg.length >= offset + 1) {
+                this._applyButtons(msg, offset, flags, dev);
+                offset += 1;
+            }
+            seq = this._readTrailer(msg, offset, flags, dev);
+
+            this._emitter.emit('data');
+        }
+
+        // Send an ack so the WishIMU app can detect when this script stops; sequenced packets
+        // get their number echoed back for RTT measurement.
+        // Silently ignored if the socket is closed or if BIND_HOST prevents routing
+        // to the sender (e.g. loopback-only testing with PS3PIE_BIND_HOST=127.0.0.1).
+        if (this._socket) {
+            let ack;
+            if (seq >= 0) {
+                ack = Buffer.alloc(5);
+                ack[0] = 0x01;
+                ack.writeUInt32LE(seq, 1);
+            } else {
+                ack = Buffer.from([0x01]);
+            }
+            this._socket.send(ack, rinfo.port, rinfo.address);
+        }
+    }
+
+    // Applies the button byte at offset. With edge counters, first replays the transitions
+    // the counters say were lost, toggling one bit at a time with a 'data' event each; the
+    // last transition of each button is the state the byte itself carries.
+    _applyButtons(msg, offset, flags, dev) {
+        const buttons = msg[offset];
+        const at = offset + 1 + ((flags & FLAG_SEND_SEQUENCE) ? 12 : 0);
+        if (!(flags & FLAG_SEND_EDGES) || msg.length < at + 1 || msg.length < at + 1 + msg[at]) {
+            dev.buttons = buttons;
+            return;
+        }
+        const n = Math.min(msg[at], 8);
+        const prev = dev._edges;
+        if (dev._edgesSeen) {
+            for (let i = 0; i < n; i++) {
+                if (((msg[at + 1 + i] - prev[i]) & 0xff) >= 0x80) return;   // stale frame
+            }
+            for (let i = 0; i < n; i++) {
+                const gap = (msg[at + 1 + i] - prev[i]) & 0xff;
+                for (let k = 1; k < gap; k++) {
+                    dev.buttons ^= 1 << i;
+                    dev.replayedEdges++;
+                    this._emitter.emit('data');
+                }
+            }
+        }
+        for (let i = 0; i < n; i++) prev[i] = msg[at + 1 + i];
+        dev._edgesSeen = true;
+        dev.buttons = buttons;
+    }
+
+    // Reads the optional trailer that follows the button byte and updates loss accounting.
+    // Returns the packet's sequence number, or -1 without a trailer.
+    _readTrailer(msg, offset, flags, dev) {
+        if ((flags & FLAG_SEND_SEQUENCE) && msg.length >= offset + 12) {
+            const seq = msg.readUInt32LE(offset);
+            if (dev._seqSeen) {
+                const gap = (seq - dev.seq) >>> 0;          // modulo 2^32
+                if (gap === 0 || gap >= 0x80000000) {
+                    dev.reordered++;
+                    if (gap !== 0 && dev.lost > 0) dev.lost--;   // counted as lost, arrived late
+                } else {
+                    dev.lost += gap - 1;
+                }
+            }
+            if (!dev._seqSeen || ((seq - dev.seq) >>> 0) < 0x80000000) dev.seq = seq;
+            dev._seqSeen = true;
+            dev.timestamp = Number(msg.readBigInt64LE(offset + 4));
+            return seq;
+        }
+        return -1;
+    }
 
+    // Reads one compact block of `values` fixed-point values; returns the offset after it.
+    // `last` marks the sample a keyframe's successors are encoded against.
+    _readCompactSample(msg, offset, flags, dev, header, values, last) {
+        const delta = (header & 0x80) !== 0;
+        const id    = header & 0x7f;
+        if (delta && dev._keyId !== id) return offset + values;   // reference keyframe was lost
+        const q = new Array(values);
+        for (let i = 0; i < values; i++) {
+            q[i] = delta ? dev._key[i] + msg.readInt8(offset + i) : msg.readInt16LE(offset + 2 * i);
+        }
+        if (!delta && last) {
+            dev._key.set(q);
+            dev._keyId = id;
+        }
+        // Scales are indexed by value kind, so skip the raw block when it is absent.
+        const base = (flags & FLAG_SEND_RAW) ? 0 : 9;
+        const quat = (flags & FLAG_SEND_QUATERNION) !== 0;
+        const v = q.map((x, i) => x / (quat && base + i >= 9 ? COMPACT_QUAT_SCALE : COMPACT_SCALES[base + i]));
+        let k = 0;
+        if (flags & FLAG_SEND_RAW) {
+            dev.raw.ax = v[k++]; dev.raw.ay = v[k++]; dev.raw.az = v[k++];
+            dev.raw.gx = v[k++]; dev.raw.gy = v[k++]; dev.raw.gz = v[k++];
+            dev.raw.mx = v[k++]; dev.raw.my = v[k++]; dev.raw.mz = v[k++];
+        }
+        if ((flags & FLAG_SEND_ORIENTATION) && quat) {
+            setQuaternion(dev, v[k], v[k + 1], v[k + 2], v[k + 3]);
+        } else if (flags & FLAG_SEND_ORIENTATION) {
+            dev.yaw = v[k++]; dev.pitch = v[k++]; dev.roll = v[k++];
+        }
+        return offset + values * (delta ? 1 : 2);
+    }
+
+    // Reads one [raw][orientation] block starting at offset; returns the offset after it.
+    _readSample(msg, offset, flags, dev) {
         if ((flags & FLAG_SEND_RAW) && msg.length >= offset + 36) {
             dev.raw.ax = msg.readFloatLE(offset);  offset += 4;
             dev.raw.ay = msg.readFloatLE(offset);  offset += 4;
@@ -113,7 +317,16 @@ class AndroidPlugin extends Plugin {
             dev.raw.mz = msg.readFloatLE(offset);  offset += 4;
         }
 
-        if ((flags & FLAG_SEND_ORIENTATION) && msg.length >= offset + 12) {
+        if ((flags & FLAG_SEND_ORIENTATION) && (flags & FLAG_SEND_QUATERNION)) {
+            if (msg.length >= offset + 16) {
+                const w = msg.readFloatLE(offset);
+                const x = msg.readFloatLE(offset + 4);
+                const y = msg.readFloatLE(offset + 8);
+                const z = msg.readFloatLE(offset + 12);
+                if (isFinite(w) && isFinite(x) && isFinite(y) && isFinite(z)) setQuaternion(dev, w, x, y, z);
+                offset += 16;
+            }
+        } else if ((flags & FLAG_SEND_ORIENTATION) && msg.length >= offset + 12) {
             const yaw   = msg.readFloatLE(offset);
             const pitch = msg.readFloatLE(offset + 4);
             const roll  = msg.readFloatLE(offset + 8);
@@ -123,16 +336,7 @@ class AndroidPlugin extends Plugin {
             offset += 12;
         }
 
-        if ((flags & FLAG_SEND_BUTTONS) && msg.length >= offset + 1) {
-            dev.buttons = msg[offset];
-        }
-
-        this._emitter.emit('data');
-
-        // Send 1-byte ack so the WishIMU app can detect when this script stops.
-        // Silently ignored if the socket is closed or if BIND_HOST prevents routing
-        // to the sender (e.g. loopback-only testing with PS3PIE_BIND_HOST=127.0.0.1).
-        if (this._socket) this._socket.send(Buffer.from([0x01]), rinfo.port, rinfo.address);
+        return offset;
     }
 
     async stop() {